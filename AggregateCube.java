@@ -0,0 +1,101 @@
+import java.time.*;
+import java.util.*;
+
+// Sums and counts of the live rows, pre-aggregated by (month, category,
+// payment method, sign). The store keeps it current in O(1) per appended or
+// tombstoned row, so totals for a filter made of whole months and/or one
+// category cost one pass over the cells instead of one over the rows.
+//
+// Cells are never mutated once a snapshot shares the cube: the store copies
+// it on the next change instead (see ExpenseStore.snapshot()).
+public final class AggregateCube {
+
+    // Sign of the amount; zero amounts are kept apart since the dashboard
+    // counts them as neither income nor expense and the monthly chart as income
+    public static final int POSITIVE = 0, NEGATIVE = 1, ZERO = 2;
+
+    public interface CellVisitor {
+        void visit(int month, short categoryId, short paymentMethodId, int sign, long sumCents, long count);
+    }
+
+    // Packed key -> [sumCents, count]
+    private final HashMap<Long, long[]> cells;
+
+    public AggregateCube() {
+        cells = new HashMap<>();
+    }
+
+    private AggregateCube(AggregateCube source) {
+        cells = new HashMap<>(source.cells.size() * 2);
+        for (Map.Entry<Long, long[]> entry : source.cells.entrySet()) {
+            cells.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    AggregateCube copy() {
+        return new AggregateCube(this);
+    }
+
+    // direction is 1 for a row becoming live and -1 for one being tombstoned
+    void add(int epochDay, short categoryId, short paymentMethodId, long cents, int direction) {
+        int sign = cents > 0 ? POSITIVE : cents < 0 ? NEGATIVE : ZERO;
+        long key = key(monthOf(epochDay), categoryId, paymentMethodId, sign);
+        long[] cell = cells.computeIfAbsent(key, k -> new long[2]);
+        cell[0] += direction * cents;
+        cell[1] += direction;
+        if (cell[1] == 0) cells.remove(key);
+    }
+
+    public int cellCount() {
+        return cells.size();
+    }
+
+    public void forEach(CellVisitor visitor) {
+        for (Map.Entry<Long, long[]> entry : cells.entrySet()) {
+            long key = entry.getKey();
+            visitor.visit((int) (key >> 34), (short) (key >>> 18), (short) (key >>> 2), (int) key & 3,
+                entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    // month, then 16 bits each of category and payment method ids, then 2 of sign
+    private static long key(int month, short categoryId, short paymentMethodId, int sign) {
+        return ((long) month << 34) | ((categoryId & 0xffffL) << 18) | ((paymentMethodId & 0xffffL) << 2) | sign;
+    }
+
+    // year * 12 + month - 1
+    public static int monthOf(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    // A filter the cube can answer: one category (or any) over whole months
+    public static final class Slice {
+        public static final Slice ALL = new Slice(FilterIndex.ANY_CATEGORY, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        final int categoryId;
+        final int fromMonth;
+        final int toMonth;
+
+        private Slice(int categoryId, int fromMonth, int toMonth) {
+            this.categoryId = categoryId;
+            this.fromMonth = fromMonth;
+            this.toMonth = toMonth;
+        }
+
+        // The slice for a category and date range filter, or null when the
+        // range starts or ends part way through a month
+        public static Slice of(int categoryId, LocalDate from, LocalDate to) {
+            if (from != null && from.getDayOfMonth() != 1) return null;
+            if (to != null && to.getDayOfMonth() != to.lengthOfMonth()) return null;
+            return new Slice(categoryId,
+                from == null ? Integer.MIN_VALUE : monthOf((int) from.toEpochDay()),
+                to == null ? Integer.MAX_VALUE : monthOf((int) to.toEpochDay()));
+        }
+
+        boolean contains(int month, short categoryId) {
+            return month >= fromMonth && month <= toMonth
+                && (this.categoryId == FilterIndex.ANY_CATEGORY || (short) this.categoryId == categoryId);
+        }
+    }
+}
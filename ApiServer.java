@@ -0,0 +1,523 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// A local HTTP API over the same partitions the application shows, served by
+// the JDK's HttpServer with a virtual thread per request. Every request logs
+// in with HTTP Basic credentials from the users file. Each user reaches their
+// own partition; admins may pass user=<name> to reach anyone's.
+//
+//   GET  /api/transactions  rows matching search | category, from, to; sorted by
+//                           sort=date,-amount,... (fields of the table); paged
+//                           with offset and limit (at most 10,000)
+//   POST /api/transactions  one row or an array of rows, as JSON objects with
+//                           date, category, amount, description, paymentMethod, tags
+//   GET  /api/aggregates    totals, by category, by month and the running
+//                           balance (at most points=<n> of it, default 1,000)
+//                           of the rows matching the same filters
+//   GET  /api/stats         request counts and latency percentiles per endpoint,
+//                           timed from the handler starting to the response sent,
+//                           and the journal writers' queue depth and commit latency
+//
+// serve [--port=<port>] [--bind=<address>] [--dir=<data dir>] [--db=<jdbc url>]
+//       [--fsync=batch|never|<n>ms]
+// starts it from the command line; it listens on 127.0.0.1:8080 by default
+// and fsyncs each journal write batch unless --fsync says otherwise.
+public final class ApiServer implements Closeable {
+
+    private static final int DEFAULT_LIMIT = 100, MAX_LIMIT = 10_000;
+    private static final int DEFAULT_POINTS = 1000;
+    // Accepted connections waiting for the dispatcher
+    private static final int BACKLOG = 4096;
+    private static final long USER_RELOAD_NANOS = 1_000_000_000L;
+    // Query results kept for repeated requests
+    private static final int CACHED_PAGES = 64;
+    private static final Set<String> OPTIONS = Set.of("port", "bind", "dir", "db", "fsync");
+    private static final Set<String> ROUTES = Set.of(
+        "GET /api/transactions", "POST /api/transactions", "GET /api/aggregates", "GET /api/stats");
+
+    private final LedgerEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile Map<String, User> users;
+    private volatile long usersLoaded;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+    private final Instant started = Instant.now();
+    private final PageCache pages = new PageCache();
+
+    // A request the client got wrong, answered with the status and message
+    private static final class ApiException extends Exception {
+        final int status;
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // Pages of in-memory partitions by query, valid while the store's version
+    // is unchanged. Requests for a query already running wait for its result
+    // rather than run it again, so a burst of identical dashboard polls costs
+    // one query. Partitions in a database are queried every time.
+    private static final class PageCache {
+        private record Key(ExpenseRepository.Partition partition, ExpenseRepository.Filter filter, String sort) { }
+        private record Entry(long version, CompletableFuture<ExpenseRepository.Page> page) { }
+
+        // Access order, least recently used first
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        ExpenseRepository.Page query(ExpenseRepository.Partition partition, ExpenseRepository.Filter filter,
+                                     String sort) throws ApiException, IOException {
+            RowIndexList.RowComparator order = order(sort);
+            ExpenseStore store = partition.getStore();
+            if (store == null) return partition.query(filter, order, () -> false);
+
+            Key key = new Key(partition, filter, sort == null ? "" : sort);
+            long version = store.version();
+            Entry mine = new Entry(version, new CompletableFuture<>());
+            Entry entry;
+            synchronized (entries) {
+                entry = entries.get(key);
+                if (entry == null || entry.version() != version) {
+                    entries.put(key, entry = mine);
+                    if (entries.size() > CACHED_PAGES) entries.remove(entries.keySet().iterator().next());
+                }
+            }
+            if (entry == mine) {
+                try {
+                    mine.page().complete(partition.query(filter, order, () -> false));
+                } catch (IOException | RuntimeException e) {
+                    mine.page().completeExceptionally(e);
+                    synchronized (entries) {
+                        entries.remove(key, mine);
+                    }
+                }
+            }
+            try {
+                return entry.page().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw e;
+            }
+        }
+    }
+
+    public ApiServer(LedgerEngine engine, InetSocketAddress address) throws IOException {
+        this.engine = engine;
+        this.users = engine.loadUsers();
+        this.usersLoaded = System.nanoTime();
+        server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // Stops accepting, gives requests in progress a second to finish
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.close();
+    }
+
+    // Returns the exit status once the server is up (it then runs until the
+    // process is interrupted), or at once on bad arguments or failure
+    public static int run(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (name == null || !OPTIONS.contains(name)) {
+                System.err.println("Unknown argument: " + arg);
+                System.err.println("usage: serve [--port=<port>] [--bind=<address>] [--dir=<dir>] [--db=<jdbc url>]"
+                    + " [--fsync=batch|never|<n>ms]");
+                return 2;
+            }
+            options.put(name, arg.substring(eq + 1));
+        }
+        if (options.containsKey("fsync")) {
+            try {
+                JournalWriter.setDefaultPolicy(JournalWriter.SyncPolicy.parse(options.get("fsync")));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return 2;
+            }
+        }
+        try {
+            InetSocketAddress address = new InetSocketAddress(options.getOrDefault("bind", "127.0.0.1"),
+                Integer.parseInt(options.getOrDefault("port", "8080")));
+            LedgerEngine engine = LedgerEngine.open(Paths.get(options.getOrDefault("dir", "")), options.get("db"));
+            ApiServer api = new ApiServer(engine, address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                api.close();
+                System.out.print(api.stats());
+                try {
+                    engine.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close expenses: " + e.getMessage());
+                }
+            }, "budgify-api-shutdown"));
+            api.start();
+            System.out.println("Serving on http://" + api.getAddress().getHostString() + ":" + api.getAddress().getPort() + "/api/");
+            return 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Bad port: " + options.get("port"));
+            return 2;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not start: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String route = exchange.getRequestMethod() + " " + exchange.getHttpContext().getPath()
+            + exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+        int status;
+        String body;
+        try {
+            User user = authenticate(exchange);
+            Map<String, String> query = queryParameters(exchange.getRequestURI());
+            body = switch (route) {
+                case "GET /api/transactions" -> transactions(partition(user, query), query);
+                case "POST /api/transactions" -> insert(partition(user, query), exchange.getRequestBody());
+                case "GET /api/aggregates" -> aggregates(partition(user, query), query);
+                case "GET /api/stats" -> stats();
+                default -> throw new ApiException(route.startsWith("GET ") || route.startsWith("POST ") ? 404 : 405,
+                    "No such endpoint: " + route);
+            };
+            status = route.startsWith("POST ") ? 201 : 200;
+        } catch (ApiException e) {
+            status = e.status;
+            body = error(e.getMessage());
+            if (status == 401) exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"Budgify\"");
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body = error(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } finally {
+            // Unknown paths share one entry, so probing cannot grow the table
+            String key = ROUTES.contains(route) ? route : "other";
+            latencies.computeIfAbsent(key, k -> new LatencyHistogram()).record(System.nanoTime() - start);
+            statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+        }
+    }
+
+    // The account named by Basic credentials. Accounts created since the users
+    // were read are picked up by reading them again, at most once a second.
+    private User authenticate(HttpExchange exchange) throws ApiException, IOException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6)) {
+            throw new ApiException(401, "Authentication required");
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(401, "Malformed credentials");
+        }
+        int colon = credentials.indexOf(':');
+        if (colon < 0) throw new ApiException(401, "Malformed credentials");
+        String username = credentials.substring(0, colon), password = credentials.substring(colon + 1);
+        User user = LedgerEngine.login(users, username, password);
+        if (user == null && System.nanoTime() - usersLoaded > USER_RELOAD_NANOS) {
+            usersLoaded = System.nanoTime();
+            users = engine.loadUsers();
+            user = LedgerEngine.login(users, username, password);
+        }
+        if (user == null) throw new ApiException(401, "Incorrect username or password");
+        return user;
+    }
+
+    // The caller's partition, or for admins the one of user=<name>
+    private ExpenseRepository.Partition partition(User user, Map<String, String> query) throws ApiException, IOException {
+        String other = query.get("user");
+        if (other != null && !other.equals(user.username)) {
+            if (!user.isAdmin()) throw new ApiException(403, "Only admin can read other users' transactions");
+            user = users.get(other);
+            if (user == null) throw new ApiException(404, "No such user: " + other);
+        }
+        return engine.open(user, (_, _, _) -> { });
+    }
+
+    private String transactions(ExpenseRepository.Partition partition, Map<String, String> query) throws ApiException, IOException {
+        int offset = intParameter(query, "offset", 0, 0, Integer.MAX_VALUE);
+        int limit = intParameter(query, "limit", DEFAULT_LIMIT, 0, MAX_LIMIT);
+        ExpenseRepository.Page page = pages.query(partition, filter(query), query.get("sort"));
+        int[] rows = page.rows();
+        int from = Math.min(offset, rows.length), to = (int) Math.min((long) from + limit, rows.length);
+
+        StringBuilder out = new StringBuilder(256 + (to - from) * 160);
+        out.append("{\"total\":").append(page.matchedRows())
+            .append(",\"offset\":").append(offset).append(",\"limit\":").append(limit).append(",\"rows\":[");
+        ExpenseColumns columns = page.columns();
+        for (int i = from; i < to; i++) {
+            if (i > from) out.append(',');
+            row(out, columns, rows[i]);
+        }
+        return out.append("]}").toString();
+    }
+
+    private static void row(StringBuilder out, ExpenseColumns columns, int row) {
+        out.append("{\"id\":").append(columns.getId(row))
+            .append(",\"date\":\"").append(LocalDate.ofEpochDay(columns.getEpochDay(row)))
+            .append("\",\"category\":");
+        Json.quote(out, Expense.CATEGORY_DICTIONARY.valueOf(columns.getCategoryId(row)));
+        Money.append(out.append(",\"amount\":"), columns.getCents(row));
+        Json.quote(out.append(",\"description\":"), columns.getDescription(row));
+        Json.quote(out.append(",\"paymentMethod\":"), Expense.PAYMENT_DICTIONARY.valueOf(columns.getPaymentMethodId(row)));
+        Json.quote(out.append(",\"tags\":"), columns.getTags(row)).append('}');
+    }
+
+    // One row as an object, or many as an array (added as one batch)
+    private String insert(ExpenseRepository.Partition partition, InputStream body) throws ApiException, IOException {
+        Object json;
+        try {
+            json = Json.parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+        if (json instanceof Map<?, ?> object) {
+            Expense added = partition.add(expense(object));
+            StringBuilder out = new StringBuilder(192);
+            row(out, added.getColumns(), added.getRow());
+            return out.toString();
+        }
+        if (!(json instanceof List<?> list)) throw new ApiException(400, "Expected a transaction object or an array of them");
+        ExpenseColumns rows = new ExpenseColumns(Math.max(1, list.size()));
+        for (int i = 0; i < list.size(); i++) {
+            if (!(list.get(i) instanceof Map<?, ?> object)) throw new ApiException(400, "Row " + i + " is not an object");
+            Expense e;
+            try {
+                e = expense(object);
+            } catch (ApiException ex) {
+                throw new ApiException(400, "Row " + i + ": " + ex.getMessage());
+            }
+            rows.add(0, e.getEpochDay(), e.getAmountCents(), e.getCategoryId(), e.getPaymentMethodId(),
+                e.getDescription(), e.getTags());
+        }
+        partition.addAll(rows);
+        return "{\"added\":" + rows.size() + "}";
+    }
+
+    // A detached row from a JSON object, checked as the entry form checks it
+    private static Expense expense(Map<?, ?> object) throws ApiException {
+        LocalDate date;
+        try {
+            date = LocalDate.parse(text(object, "date", true));
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "date must be yyyy-mm-dd");
+        }
+        if (!Expense.isSupportedDate(date)) {
+            throw new ApiException(400, "date must be between " + Expense.MIN_DATE + " and " + Expense.MAX_DATE);
+        }
+        String category = text(object, "category", true);
+        if (Expense.CATEGORY_DICTIONARY.find(category) < 0) throw new ApiException(400, "Unknown category: " + category);
+        String payment = text(object, "paymentMethod", true);
+        if (Expense.PAYMENT_DICTIONARY.find(payment) < 0) throw new ApiException(400, "Unknown payment method: " + payment);
+        if (!(object.get("amount") instanceof BigDecimal amount)) throw new ApiException(400, "amount must be a number");
+        long cents;
+        try {
+            cents = amount.movePointRight(2).setScale(0, java.math.RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ApiException(400, "amount is out of range");
+        }
+        String description = text(object, "description", false), tags = text(object, "tags", false);
+        // The ledger file is comma-separated and one row per line
+        if (description.matches("(?s).*[,\\r\\n].*") || tags.matches("(?s).*[,\\r\\n].*")) {
+            throw new ApiException(400, "description and tags may not contain commas or line breaks");
+        }
+        return new Expense(date, category, cents, description, payment, tags);
+    }
+
+    private static String text(Map<?, ?> object, String key, boolean required) throws ApiException {
+        Object value = object.get(key);
+        if (value == null && !required) return "";
+        if (!(value instanceof String s) || (required && s.isEmpty())) throw new ApiException(400, key + " must be a string");
+        return s;
+    }
+
+    // What the dashboard cards, category pie, monthly bars and trend line show
+    private String aggregates(ExpenseRepository.Partition partition, Map<String, String> query) throws ApiException, IOException {
+        int points = intParameter(query, "points", DEFAULT_POINTS, 2, 100_000);
+        ExpenseRepository.Page page = pages.query(partition, filter(query), null);
+        ViewTotals totals = page.totals();
+        StringBuilder out = new StringBuilder(4096);
+        out.append("{\"transactions\":").append(page.matchedRows())
+            .append(",\"income\":").append(cents(totals.getIncome()))
+            .append(",\"expense\":").append(cents(totals.getExpense()))
+            .append(",\"balance\":").append(cents(totals.getIncome() + totals.getExpense()));
+        Money.append(out.append(",\"opening\":"), page.opening());
+        Money.append(out.append(",\"closing\":"), page.closing());
+
+        out.append(",\"categories\":[");
+        boolean first = true;
+        for (String category : Expense.CATEGORIES) {
+            if (!totals.hasCategoryIncome(category) && !totals.hasCategoryExpense(category)) continue;
+            if (!first) out.append(',');
+            first = false;
+            Json.quote(out.append("{\"category\":"), category)
+                .append(",\"income\":").append(cents(totals.getCategoryIncome(category)))
+                .append(",\"expense\":").append(cents(totals.getCategoryExpense(category))).append('}');
+        }
+
+        SortedMap<YearMonth, Double> income = totals.getMonthlyIncome();
+        SortedMap<YearMonth, Double> expense = totals.getMonthlyExpense();
+        SortedSet<YearMonth> months = new TreeSet<>(income.keySet());
+        months.addAll(expense.keySet());
+        out.append("],\"months\":[");
+        first = true;
+        for (YearMonth month : months) {
+            if (!first) out.append(',');
+            first = false;
+            out.append("{\"month\":\"").append(month)
+                .append("\",\"income\":").append(cents(income.getOrDefault(month, 0.0)))
+                .append(",\"expense\":").append(cents(expense.getOrDefault(month, 0.0))).append('}');
+        }
+
+        TimeSeries trend = totals.getRunningBalance();
+        out.append("],\"trend\":[");
+        first = true;
+        for (int i : trend.downsample(0, trend.size(), points)) {
+            if (!first) out.append(',');
+            first = false;
+            out.append("{\"date\":\"").append(LocalDate.ofEpochDay((long) trend.getX(i)))
+                .append("\",\"balance\":").append(cents(trend.getY(i))).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    // Totals are whole cents held as doubles; print them as the ledger does
+    private static String cents(double dollars) {
+        return Money.append(new StringBuilder(16), Math.round(dollars * 100)).toString();
+    }
+
+    private String stats() {
+        StringBuilder out = new StringBuilder(1024);
+        out.append("{\"uptimeSeconds\":").append(Duration.between(started, Instant.now()).toSeconds())
+            .append(",\"statuses\":{");
+        boolean first = true;
+        for (var entry : statuses.entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            out.append('"').append(entry.getKey()).append("\":").append(entry.getValue().sum());
+        }
+        out.append("},\"endpoints\":{");
+        first = true;
+        for (var entry : new TreeMap<>(latencies).entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            LatencyHistogram h = entry.getValue();
+            Json.quote(out, entry.getKey()).append(":{\"requests\":").append(h.count())
+                .append(",\"meanMs\":").append(millis(h.meanNanos()))
+                .append(",\"p50Ms\":").append(millis(h.percentileNanos(0.50)))
+                .append(",\"p90Ms\":").append(millis(h.percentileNanos(0.90)))
+                .append(",\"p99Ms\":").append(millis(h.percentileNanos(0.99)))
+                .append(",\"maxMs\":").append(millis(h.maxNanos())).append('}');
+        }
+        LatencyHistogram commits = JournalWriter.commitLatency();
+        out.append("},\"journal\":{\"fsync\":\"").append(JournalWriter.getDefaultPolicy())
+            .append("\",\"queued\":").append(JournalWriter.queuedCommits())
+            .append(",\"commits\":").append(commits.count())
+            .append(",\"batches\":").append(JournalWriter.batches())
+            .append(",\"syncs\":").append(JournalWriter.syncs())
+            .append(",\"meanMs\":").append(millis(commits.meanNanos()))
+            .append(",\"p50Ms\":").append(millis(commits.percentileNanos(0.50)))
+            .append(",\"p99Ms\":").append(millis(commits.percentileNanos(0.99)))
+            .append(",\"maxMs\":").append(millis(commits.maxNanos()));
+        return out.append("}}\n").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static ExpenseRepository.Filter filter(Map<String, String> query) throws ApiException {
+        String search = query.get("search");
+        if (search != null) return ExpenseRepository.Filter.search(search);
+        String category = query.get("category");
+        if (category != null && Expense.CATEGORY_DICTIONARY.find(category) < 0) {
+            throw new ApiException(400, "Unknown category: " + category);
+        }
+        try {
+            LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : null;
+            LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : null;
+            if ((from != null && !Expense.isSupportedDate(from)) || (to != null && !Expense.isSupportedDate(to))) {
+                throw new ApiException(400, "from and to must be between " + Expense.MIN_DATE + " and " + Expense.MAX_DATE);
+            }
+            return new ExpenseRepository.Filter(null, category, from, to);
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "from and to must be yyyy-mm-dd");
+        }
+    }
+
+    // sort=date,-amount: table columns, '-' for descending; null for storage order
+    private static RowIndexList.RowComparator order(String sort) throws ApiException {
+        if (sort == null || sort.isEmpty()) return null;
+        List<ExpenseField.SortKey> keys = new ArrayList<>();
+        for (String key : sort.split(",")) {
+            boolean descending = key.startsWith("-");
+            String name = (descending ? key.substring(1) : key).toUpperCase(Locale.ROOT);
+            try {
+                keys.add(new ExpenseField.SortKey(ExpenseField.valueOf(name), descending));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Unknown sort field: " + key);
+            }
+        }
+        return ExpenseField.order(keys);
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int fallback, int min, int max) throws ApiException {
+        String value = query.get(name);
+        if (value == null) return fallback;
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= min && n <= max) return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ApiException(400, name + " must be a whole number from " + min + " to " + max);
+    }
+
+    private static Map<String, String> queryParameters(URI uri) throws ApiException {
+        Map<String, String> parameters = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) return parameters;
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            try {
+                String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                parameters.putIfAbsent(key, value);
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Malformed query string");
+            }
+        }
+        return parameters;
+    }
+
+    private static String error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append("}").toString();
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.*;
+
+// Fenwick tree of daily net amounts (cents) over a window of epoch days.
+// Answers the balance as of a day and the net flow between two days in
+// O(log days), and absorbs a row on any day, back-dated or not, in
+// O(log days). A row outside the window widens it, rebuilding the tree in
+// O(days); the window at least doubles each time, so that stays rare.
+//
+// The window never grows past MAX_DAYS: days further out go to a sparse map
+// instead, so one far-off outlier costs an entry rather than a dense array
+// spanning the gap. Queries add up the map's days on or before theirs.
+public final class BalanceIndex {
+
+    private static final int INITIAL_DAYS = 1024;
+    // About 180 years of days
+    private static final int MAX_DAYS = 1 << 16;
+
+    // tree[i] covers days firstDay + i - (i & -i) .. firstDay + i - 1
+    private long[] tree;
+    private int firstDay;
+    // Net amounts of the days outside the window
+    private final TreeMap<Integer, Long> outliers = new TreeMap<>();
+
+    public void clear() {
+        tree = null;
+        outliers.clear();
+    }
+
+    public void add(int epochDay, long cents) {
+        if (cents == 0) return;
+        if (!cover(epochDay)) {
+            outliers.merge(epochDay, cents, Long::sum);
+            return;
+        }
+        for (int i = epochDay - firstDay + 1; i < tree.length; i += i & -i) tree[i] += cents;
+    }
+
+    // Net of every row dated on or before the day
+    public long balanceAsOf(int epochDay) {
+        long sum = tree == null ? 0 : dense(epochDay);
+        if (!outliers.isEmpty()) {
+            for (long cents : outliers.headMap(epochDay, true).values()) sum += cents;
+        }
+        return sum;
+    }
+
+    // Net of the rows dated fromDay..toDay inclusive
+    public long netFlow(int fromDay, int toDay) {
+        if (fromDay > toDay) return 0;
+        return balanceAsOf(toDay) - balanceAsOf(fromDay - 1);
+    }
+
+    // Widen the window to take the day if that keeps it within MAX_DAYS;
+    // false if the day belongs in the outlier map
+    private boolean cover(int epochDay) {
+        if (tree == null) {
+            tree = new long[INITIAL_DAYS + 1];
+            firstDay = epochDay - INITIAL_DAYS / 2;
+            return true;
+        }
+        int days = tree.length - 1;
+        if (epochDay >= firstDay && epochDay < firstDay + days) return true;
+        long span = epochDay < firstDay ? (long) firstDay + days - epochDay : (long) epochDay + 1 - firstDay;
+        if (span > MAX_DAYS) return false;
+
+        // Widen towards the new day by at least the current window, then rebuild
+        long[] daily = new long[days];
+        for (int d = 0; d < days; d++) daily[d] = dense(firstDay + d) - dense(firstDay + d - 1);
+        int newFirst = epochDay < firstDay ? Math.min(epochDay, firstDay - days) : firstDay;
+        int newDays = Math.max(firstDay + days, epochDay + 1) - newFirst;
+        if (epochDay >= firstDay) newDays = Math.max(newDays, 2 * days);
+        if (newDays > MAX_DAYS) {
+            // Doubling would pass the cap; take just what the day needs
+            newDays = (int) span;
+            if (epochDay < firstDay) newFirst = epochDay;
+        }
+        long[] rebuilt = new long[newDays + 1];
+        int shift = firstDay - newFirst;
+        for (int d = 0; d < days; d++) rebuilt[d + shift + 1] = daily[d];
+        // Linear-time construction: push each node's total into its parent
+        for (int i = 1; i <= newDays; i++) {
+            int parent = i + (i & -i);
+            if (parent <= newDays) rebuilt[parent] += rebuilt[i];
+        }
+        tree = rebuilt;
+        firstDay = newFirst;
+        return true;
+    }
+
+    // Prefix sum of the window alone
+    private long dense(int epochDay) {
+        if (epochDay < firstDay) return 0;
+        long sum = 0;
+        for (int i = (int) Math.min((long) epochDay - firstDay + 1, tree.length - 1); i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Watches a ledger's base file for lines other programs append (bank exports,
+// scripts) and hands each batch to the publisher, which in the UI is
+// Platform::runLater, to be applied with Ledger.applyAppended(). Batches are
+// read from the last offset on the watch thread, so the work per append
+// depends on the bytes appended, not on the size of the file.
+public class BaseFileFollower implements Closeable {
+
+    private final Ledger ledger;
+    private final Path fileName;
+    private final Executor publisher;
+    private final Consumer<Ledger.Appended> onAppend;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    public BaseFileFollower(Ledger ledger, Executor publisher, Consumer<Ledger.Appended> onAppend) throws IOException {
+        this.ledger = ledger;
+        this.publisher = publisher;
+        this.onAppend = onAppend;
+        Path file = ledger.getBaseFile().toAbsolutePath();
+        fileName = file.getFileName();
+        watcher = file.getFileSystem().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::run, "budgify-follow");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            // Catch up with whatever was appended before watching started
+            poll();
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+                }
+                if (changed) poll();
+                if (!key.reset()) return;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void poll() {
+        try {
+            Ledger.Appended appended = ledger.readAppended();
+            if (appended != null) publisher.execute(() -> onAppend.accept(appended));
+        } catch (IOException e) {
+            System.err.println("Following " + ledger.getBaseFile() + " failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watcher.close();
+    }
+}
@@ -1,5 +1,7 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.*;
+import javafx.concurrent.Task;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.Node;
@@ -11,28 +13,24 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.*;
 import javafx.stage.*;
 import java.io.*;
+import java.nio.file.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
+import java.util.function.*;
 import java.util.stream.*;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.scene.input.KeyCode;
+import javafx.util.StringConverter;
 
 public class Budgify extends Application {
 
     // Constants
-    private static final String CSV_FILE = "expenses.csv";
-    private static final String USERS_FILE = "users.csv";
-    private static final String[] CATEGORIES = {
-        "Housing", "Food", "Transportation", "Utilities", 
-        "Healthcare", "Entertainment", "Education", "Savings", 
-        "Investments", "Debt", "Other"
-    };
-    private static final String[] PAYMENT_METHODS = {
-        "Cash", "Credit Card", "Debit Card", "Bank Transfer", 
-        "Digital Wallet", "Cryptocurrency", "Other"
-    };
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy");
+    // Appended batches larger than this are shown with one query instead of row by row
+    private static final int BULK_APPEND_ROWS = 1000;
+    private static final String[] CATEGORIES = Expense.CATEGORIES;
+    private static final String[] PAYMENT_METHODS = Expense.PAYMENT_METHODS;
 
     // UI Components
     private TextField amountField, descriptionField, tagsField, searchField;
@@ -40,59 +38,86 @@ public class Budgify extends Application {
     private ComboBox<String> categoryBox, paymentBox, typeBox;
     private TableView<Expense> expenseTable;
     private Label balanceLabel, incomeLabel, expenseLabel;
+    private Label periodLabel;
+    private Label statusLabel;
+    private Label summaryLabel;
+    private ProgressIndicator busyIndicator;
+    // What a background task is doing, and a way to stop it where it allows that
+    private Label taskLabel;
+    private Button cancelTaskButton;
     private PieChart categoryChart;
     private BarChart<String, Number> monthlyChart;
-    private LineChart<String, Number> trendChart;
+    private LineChart<Number, Number> trendChart;
+    private NumberAxis trendXAxis;
+    private XYChart.Series<Number, Number> trendBalance;
+    // Running balance of the visible rows by epoch day, and the zoomed day range (null shows it all)
+    private TimeSeries trendSeries = new TimeSeries(new double[0], new double[0]);
+    private double[] trendZoom;
+    private double trendDragX;
     private ComboBox<String> pieTypeBox;
+    private Button addButton;
 
     // Data
-    private ObservableList<Expense> expenses = FXCollections.observableArrayList();
-    private ObservableList<Expense> filteredExpenses = FXCollections.observableArrayList();
+    private LedgerEngine engine;
+    // Partition of the logged-in user, once loaded; queries go to querySource,
+    // which is also set while it loads. store is the partition's in-memory
+    // store, or an empty one when there is none to listen to.
+    private ExpenseRepository.Partition ledger;
+    private ExpenseRepository.Partition querySource;
+    private ExpenseStore store = new ExpenseStore();
+    // Background load of the partition; null once it has finished. Views drawn
+    // meanwhile show the rows loaded so far.
+    private Task<ExpenseRepository.Partition> loadTask;
+    // Picks up rows other programs append to the partition's file
+    private BaseFileFollower follower;
+    // Row being edited through the form, replaced in place when the form is saved
+    private Expense editingExpense;
+    private final RowIndexList filteredExpenses = new RowIndexList();
+    // Rows of the partition currently shown in the views, and their running
+    // totals. activeView is the filter the partition's queries answer, and
+    // tests single rows as edits arrive.
+    private ExpenseRepository.Filter activeView = ExpenseRepository.Filter.ALL;
+    private ViewTotals viewTotals = new ViewTotals();
+    // Totals of the whole partition, and its balance either side of the view's date range
+    private ViewTotals partitionTotals = new ViewTotals();
+    private long openingBalance, closingBalance;
+    // Matching rows a database query left out of the view
+    private int unshownRows;
+    private final QueryExecutor queryExecutor = new QueryExecutor(Platform::runLater, 150);
+    private final ExpenseStore.Listener storeListener = this::onStoreChange;
+    // Views redrawn by the render scheduler, once per pulse and only while showing
+    private static final String DASHBOARD_VIEW = "dashboard", STATUS_VIEW = "status", PIE_VIEW = "pie",
+        MONTHLY_VIEW = "monthly", TREND_VIEW = "trend", TREND_SAMPLE_VIEW = "trend-sample", REPORTS_VIEW = "reports";
+    private final RenderScheduler render = new RenderScheduler();
+    private int storeRowCount;
+    private long lastQueryMillis;
     private Map<String, User> users = new HashMap<>();
     private User currentUser = null;
 
-    public static class Expense {
-        private final LocalDate date;
-        private final String category;
-        private final double amount;
-        private final String description;
-        private final String paymentMethod;
-        private final String tags;
-
-        public Expense(LocalDate date, String category, double amount, 
-                      String description, String paymentMethod, String tags) {
-            this.date = date;
-            this.category = category;
-            this.amount = amount;
-            this.description = description;
-            this.paymentMethod = paymentMethod;
-            this.tags = tags;
-        }
-
-        public LocalDate getDate() { return date; }
-        public String getCategory() { return category; }
-        public double getAmount() { return amount; }
-        public String getDescription() { return description; }
-        public String getPaymentMethod() { return paymentMethod; }
-        public String getTags() { return tags; }
-        public String getFormattedDate() { return date.format(DATE_FORMATTER); }
-        public String getFormattedAmount() { return String.format("$%.2f", amount); }
-    }
-
-    // Add inside your Budgify class (but outside other methods)
-    private static class User {
-        String username;
-        String password;
-        String role; // "admin" or "user"
-        User(String username, String password, String role) {
-            this.username = username;
-            this.password = password;
-            this.role = role;
+    // What a background query hands back to the JavaFX thread: the visible
+    // rows, sorted in the given table order
+    private static class ViewResult {
+        final ExpenseRepository.Page page;
+        final RowIndexList.RowComparator order;
+        ViewResult(ExpenseRepository.Page page, RowIndexList.RowComparator order) {
+            this.page = page;
+            this.order = order;
         }
     }
 
     @Override
     public void start(Stage primaryStage) {
+        // Opened once and kept across logins, so partitions stay cached and only
+        // one ledger (with its compactor and journal writer) owns each file
+        if (engine == null) {
+            try {
+                engine = openEngine();
+            } catch (IOException e) {
+                showAlert("Error", e.getMessage());
+                primaryStage.close();
+                return;
+            }
+        }
         // Loop until login is successful or cancelled
         while (true) {
             loadUsers();
@@ -103,18 +128,14 @@ public class Budgify extends Application {
                 return;
             }
 
-            // Load expenses for the logged-in user (or all, if not multi-user)
-            loadExpenses();
-            filteredExpenses.setAll(expenses);
+            activeView = ExpenseRepository.Filter.ALL;
 
             // --- Build the main UI ---
             primaryStage.setTitle("Budgify - Personal Finance Manager");
             primaryStage.getIcons().add(new Image("file:budgify-icon.png"));
 
             // Initialize UI components
-            createInputForm();
             createExpenseTable();
-            createCharts();
 
             // --- TabPane for all main sections ---
             TabPane mainTabs = new TabPane();
@@ -226,6 +247,20 @@ public class Budgify extends Application {
             dashboardCards.getStyleClass().add("top-panel");
             root.setTop(dashboardCards);
 
+            // Row counts and query latency
+            statusLabel = new Label();
+            taskLabel = new Label();
+            cancelTaskButton = new Button("Cancel");
+            cancelTaskButton.managedProperty().bind(cancelTaskButton.visibleProperty());
+            cancelTaskButton.setVisible(false);
+            Region statusGap = new Region();
+            HBox.setHgrow(statusGap, Priority.ALWAYS);
+            HBox statusBar = new HBox(10, statusLabel, statusGap, taskLabel, cancelTaskButton);
+            statusBar.setAlignment(Pos.CENTER_LEFT);
+            statusBar.getStyleClass().add("status-bar");
+            root.setBottom(statusBar);
+            render.register(STATUS_VIEW, null, this::updateStatus);
+
             // Scene setup
             Scene scene = new Scene(root, 1300, 850);
             scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
@@ -233,14 +268,42 @@ public class Budgify extends Application {
 
             primaryStage.setScene(scene);
             primaryStage.show();
-            updateDashboard();
-            updateCharts();
+
+            // Load expenses for the logged-in user once the window is up
+            loadExpenses();
 
             // Break the login loop after successful login and UI build
             break;
         }
     }
 
+    // CSV files in the working directory, unless --db=<JDBC URL> names an
+    // embedded database (which starts from the CSV files' contents).
+    // --fsync=batch|never|<n>ms sets how often journal writes are fsynced.
+    private LedgerEngine openEngine() throws IOException {
+        String fsync = getParameters().getNamed().get("fsync");
+        if (fsync != null) {
+            try {
+                JournalWriter.setDefaultPolicy(JournalWriter.SyncPolicy.parse(fsync));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return LedgerEngine.open(Paths.get(""), getParameters().getNamed().get("db"));
+    }
+
+    @Override
+    public void stop() {
+        stopFollowing();
+        queryExecutor.close();
+        if (engine == null) return;
+        try {
+            engine.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close expenses: " + e.getMessage());
+        }
+    }
+
     private VBox createInputForm() {
         VBox form = new VBox(15);
         form.setPadding(new Insets(20));
@@ -284,7 +347,7 @@ public class Budgify extends Application {
         typeBox.getStyleClass().add("form-control");
         typeBox.setValue("Expense");
 
-        Button addButton = new Button("Add Transaction");
+        addButton = new Button("Add Transaction");
         addButton.getStyleClass().add("primary-button");
         addButton.setOnAction(_ -> saveExpense());
 
@@ -325,51 +388,28 @@ public class Budgify extends Application {
         expenseTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         expenseTable.getStyleClass().add("expense-table");
 
-        TableColumn<Expense, String> dateCol = new TableColumn<>("Date");
-        dateCol.setCellValueFactory(cell -> 
-            new SimpleStringProperty(cell.getValue().getFormattedDate()));
-        dateCol.getStyleClass().add("table-column");
-
-        TableColumn<Expense, String> categoryCol = new TableColumn<>("Category");
-        categoryCol.setCellValueFactory(new PropertyValueFactory<>("category"));
-        categoryCol.getStyleClass().add("table-column");
-
-        TableColumn<Expense, String> amountCol = new TableColumn<>("Amount");
-        amountCol.setCellValueFactory(cell -> 
-            new SimpleStringProperty(cell.getValue().getFormattedAmount()));
-        amountCol.setComparator((s1, s2) -> {
-            double d1 = Double.parseDouble(s1.replace("$", "").replace(",", ""));
-            double d2 = Double.parseDouble(s2.replace("$", "").replace(",", ""));
-            return Double.compare(d1, d2);
-        });
-        amountCol.getStyleClass().add("table-column");
-
-        TableColumn<Expense, String> descCol = new TableColumn<>("Description");
-        descCol.setCellValueFactory(new PropertyValueFactory<>("description"));
-        descCol.getStyleClass().add("table-column");
-
-        TableColumn<Expense, String> paymentCol = new TableColumn<>("Payment");
-        paymentCol.setCellValueFactory(new PropertyValueFactory<>("paymentMethod"));
-        paymentCol.getStyleClass().add("table-column");
-
-        TableColumn<Expense, String> tagsCol = new TableColumn<>("Tags");
-        tagsCol.setCellValueFactory(new PropertyValueFactory<>("tags"));
-        tagsCol.getStyleClass().add("table-column");
+        addExpenseColumns(expenseTable);
+        expenseTable.getColumns().forEach(col -> col.getStyleClass().add("table-column"));
 
-        TableColumn<Expense, String> typeCol = new TableColumn<>("Type");
-        typeCol.setCellValueFactory(cell -> 
-            new SimpleStringProperty(cell.getValue().getAmount() >= 0 ? "Income" : "Expense"));
-        typeCol.getStyleClass().add("table-column");
+        expenseTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
-        expenseTable.getColumns().addAll(dateCol, categoryCol, amountCol, descCol, paymentCol, tagsCol, typeCol);
-
-        // Context menu for table
+        // Context menu for table; the bulk actions apply to every selected row,
+        // or to every row the filters show
         ContextMenu contextMenu = new ContextMenu();
         MenuItem deleteItem = new MenuItem("Delete");
         deleteItem.setOnAction(e -> deleteSelected());
         MenuItem editItem = new MenuItem("Edit");
         editItem.setOnAction(e -> editSelected());
-        contextMenu.getItems().addAll(editItem, deleteItem);
+        MenuItem categoryItem = new MenuItem("Set Category...");
+        categoryItem.setOnAction(e -> recategorize(new ArrayList<>(expenseTable.getSelectionModel().getSelectedItems())));
+        MenuItem categoryAllItem = new MenuItem("Set Category for All Shown...");
+        categoryAllItem.setOnAction(e -> recategorizeView());
+        MenuItem addTagItem = new MenuItem("Add Tag...");
+        addTagItem.setOnAction(e -> retag(new ArrayList<>(expenseTable.getSelectionModel().getSelectedItems()), true));
+        MenuItem removeTagItem = new MenuItem("Remove Tag...");
+        removeTagItem.setOnAction(e -> retag(new ArrayList<>(expenseTable.getSelectionModel().getSelectedItems()), false));
+        contextMenu.getItems().addAll(editItem, deleteItem, new SeparatorMenuItem(),
+            categoryItem, categoryAllItem, addTagItem, removeTagItem);
         expenseTable.setContextMenu(contextMenu);
 
         // Keyboard navigation
@@ -395,6 +435,91 @@ public class Budgify extends Application {
         return expenseTable;
     }
 
+    private void addExpenseColumns(TableView<Expense> table) {
+        for (ExpenseField field : ExpenseField.values()) {
+            TableColumn<Expense, Expense> column = new TableColumn<>(field.title);
+            column.setUserData(field);
+            column.setCellFactory(col -> new ExpenseCell(field));
+            table.getColumns().add(column);
+        }
+        // Cells have no value factory, so sort the row indices directly on their
+        // raw values; an empty sort order goes back to store order
+        table.setSortPolicy(tv -> {
+            List<ExpenseField.SortKey> keys = new ArrayList<>();
+            for (TableColumn<Expense, ?> column : tv.getSortOrder()) {
+                keys.add(new ExpenseField.SortKey((ExpenseField) column.getUserData(),
+                    column.getSortType() == TableColumn.SortType.DESCENDING));
+            }
+            ((RowIndexList) tv.getItems()).setOrder(ExpenseField.order(keys));
+            return true;
+        });
+    }
+
+    // Renders one field of the row it belongs to. Formatted dates and amounts
+    // come from small direct-mapped caches filled through a reused buffer, and
+    // a cell asked to show the same row again keeps its text.
+    private static class ExpenseCell extends TableCell<Expense, Expense> {
+        private static final int CACHE_SIZE = 4096;
+        private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy");
+        private static final int[] dateKeys = new int[CACHE_SIZE];
+        private static final String[] dateText = new String[CACHE_SIZE];
+        private static final long[] amountKeys = new long[CACHE_SIZE];
+        private static final String[] amountText = new String[CACHE_SIZE];
+        private static final StringBuilder buffer = new StringBuilder(32);
+
+        private final ExpenseField field;
+        private Expense rendered;
+
+        ExpenseCell(ExpenseField field) {
+            this.field = field;
+        }
+
+        @Override
+        protected void updateItem(Expense item, boolean empty) {
+            super.updateItem(item, empty);
+            Expense row = empty || getTableRow() == null ? null : getTableRow().getItem();
+            if (row == null) {
+                rendered = null;
+                setText(null);
+                return;
+            }
+            if (row.equals(rendered)) return;
+            rendered = row;
+            setText(text(row));
+        }
+
+        private String text(Expense row) {
+            switch (field) {
+                case DATE: return formatDate(row.getEpochDay());
+                case CATEGORY: return row.getCategory();
+                case AMOUNT: return formatAmount(row.getAmountCents());
+                case DESCRIPTION: return row.getDescription();
+                case PAYMENT: return row.getPaymentMethod();
+                case TAGS: return row.getTags();
+                default: return row.getAmountCents() >= 0 ? "Income" : "Expense";
+            }
+        }
+
+        private static String formatDate(int epochDay) {
+            int slot = epochDay & (CACHE_SIZE - 1);
+            if (dateText[slot] == null || dateKeys[slot] != epochDay) {
+                dateKeys[slot] = epochDay;
+                dateText[slot] = LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER);
+            }
+            return dateText[slot];
+        }
+
+        private static String formatAmount(long cents) {
+            int slot = (int) (cents ^ (cents >>> 32)) & (CACHE_SIZE - 1);
+            if (amountText[slot] == null || amountKeys[slot] != cents) {
+                buffer.setLength(0);
+                amountKeys[slot] = cents;
+                amountText[slot] = Money.append(buffer.append('$'), cents).toString();
+            }
+            return amountText[slot];
+        }
+    }
+
     @SuppressWarnings("unused")
     private HBox createTransactionControls() {
         HBox controlsContainer = new HBox(15);
@@ -406,13 +531,9 @@ public class Budgify extends Application {
         searchField.setPrefWidth(250);
         searchField.getStyleClass().add("search-field");
         searchField.textProperty().addListener((obs, oldVal, newVal) -> {
-            filteredExpenses.setAll(expenses.stream()
-                .filter(e -> e.getDescription().toLowerCase().contains(newVal.toLowerCase()) ||
-                             e.getCategory().toLowerCase().contains(newVal.toLowerCase()) ||
-                             e.getTags().toLowerCase().contains(newVal.toLowerCase()))
-                .collect(Collectors.toList()));
-            updateDashboard();
-            updateCharts();
+            String query = newVal.toLowerCase(Locale.ROOT);
+            activeView = ExpenseRepository.Filter.search(query);
+            runQuery(true);
         });
 
         // Filter controls
@@ -462,6 +583,10 @@ public class Budgify extends Application {
             showAlert("Validation Error", "Please fill in all required fields.");
             return;
         }
+        if (!Expense.isSupportedDate(date)) {
+            showAlert("Validation Error", "Date must be between " + Expense.MIN_DATE + " and " + Expense.MAX_DATE + ".");
+            return;
+        }
         double amount;
         try {
             amount = Double.parseDouble(amountText);
@@ -474,15 +599,25 @@ public class Budgify extends Application {
         if ("Income".equals(type) && amount < 0) amount = Math.abs(amount);
 
         Expense expense = new Expense(date, category, amount, description, payment, tags);
-        expenses.add(expense);
-        saveToFile(expense);
+        if (loadTask != null) {
+            showAlert("Loading", "Transactions are still loading; please save again in a moment.");
+            return;
+        }
+        if (ledger == null) {
+            showAlert("Error", "Transactions could not be loaded, so changes cannot be saved.");
+            return;
+        }
+        try {
+            // A row deleted meanwhile is saved as a new one
+            if (editingExpense == null || ledger.replace(editingExpense, expense) == null) {
+                ledger.add(expense);
+            }
+        } catch (IOException e) {
+            showAlert("Error", "Failed to save transaction: " + e.getMessage());
+            return;
+        }
+        showChange();
         clearForm();
-
-        // Reload from CSV to ensure table is always in sync
-        loadExpenses();
-        filteredExpenses.setAll(expenses);
-        updateDashboard();
-        updateCharts();
     }
 
     private void clearForm() {
@@ -493,6 +628,8 @@ public class Budgify extends Application {
         paymentBox.getSelectionModel().clearSelection();
         tagsField.clear();
         typeBox.setValue("Expense");
+        editingExpense = null;
+        addButton.setText("Add Transaction");
     }
 
     private void deleteSelected() {
@@ -500,20 +637,118 @@ public class Budgify extends Application {
             showAlert("Permission Denied", "Only admin can delete transactions.");
             return;
         }
-        Expense selected = expenseTable.getSelectionModel().getSelectedItem();
-        if (selected != null) {
-            expenses.remove(selected);
-            updateDataFile();
+        List<Expense> selected = new ArrayList<>(expenseTable.getSelectionModel().getSelectedItems());
+        if (selected.isEmpty() || !canChangeLedger()) return;
+        if (selected.size() == 1) {
+            try {
+                ledger.remove(selected.get(0));
+            } catch (IOException e) {
+                showAlert("Error", "Failed to delete transaction: " + e.getMessage());
+            }
+            showChange();
+            return;
+        }
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+            String.format("Delete %,d transactions?", selected.size()), ButtonType.OK, ButtonType.CANCEL);
+        confirm.setTitle("Delete");
+        confirm.setHeaderText(null);
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
+        try {
+            ledger.removeAll(selected);
+        } catch (IOException e) {
+            showAlert("Error", "Failed to delete transactions: " + e.getMessage());
+        }
+        expenseTable.getSelectionModel().clearSelection();
+        refreshView();
+    }
 
-            // Reload from CSV
-            loadExpenses();
-            filteredExpenses.setAll(expenses);
-            updateDashboard();
-            updateCharts();
+    // Store listeners show single-row changes as they happen; a partition
+    // kept in a database has none, so query it again
+    private void showChange() {
+        if (ledger != null && ledger.getStore() == null) refreshView();
+    }
+
+    private boolean canChangeLedger() {
+        if (loadTask != null) {
+            showAlert("Loading", "Transactions are still loading; please try again in a moment.");
+            return false;
         }
+        if (ledger == null) {
+            showAlert("Error", "Transactions could not be loaded, so changes cannot be saved.");
+            return false;
+        }
+        return true;
+    }
+
+    // Give every row the chosen category, as one batch
+    private void recategorize(List<Expense> rows) {
+        if (rows.isEmpty() || !canChangeLedger()) return;
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(rows.get(0).getCategory(), CATEGORIES);
+        dialog.setTitle("Set Category");
+        dialog.setHeaderText(String.format("New category for %,d transactions", rows.size()));
+        dialog.setContentText("Category:");
+        Optional<String> category = dialog.showAndWait();
+        if (category.isEmpty()) return;
+        short categoryId = Expense.CATEGORY_DICTIONARY.idOf(category.get());
+        applyBatch(rows, (columns, e) -> columns.add(0, e.getEpochDay(), e.getAmountCents(),
+            categoryId, e.getPaymentMethodId(), e.getDescription(), e.getTags()));
     }
 
-    // Now allows editing and updating a transaction
+    // Give every row matching the filters the chosen category, including
+    // rows past the page a database view shows, as one batch
+    private void recategorizeView() {
+        if (filteredExpenses.isEmpty() || !canChangeLedger()) return;
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(filteredExpenses.get(0).getCategory(), CATEGORIES);
+        dialog.setTitle("Set Category");
+        dialog.setHeaderText(String.format("New category for %,d transactions", filteredExpenses.size() + unshownRows));
+        dialog.setContentText("Category:");
+        Optional<String> category = dialog.showAndWait();
+        if (category.isEmpty()) return;
+        try {
+            ledger.setCategory(activeView, category.get());
+        } catch (IOException e) {
+            showAlert("Error", "Failed to update transactions: " + e.getMessage());
+        }
+        refreshView();
+    }
+
+    // Add a tag to, or remove it from, every row, as one batch
+    private void retag(List<Expense> rows, boolean add) {
+        if (rows.isEmpty() || !canChangeLedger()) return;
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle(add ? "Add Tag" : "Remove Tag");
+        dialog.setHeaderText(String.format("%s for %,d transactions", add ? "Tag to add" : "Tag to remove", rows.size()));
+        dialog.setContentText("Tag:");
+        // Commas separate the file's columns, so they cannot appear in a tag
+        String tag = dialog.showAndWait().map(t -> t.replaceAll("[,;]", " ").trim()).orElse("");
+        if (tag.isEmpty()) return;
+        applyBatch(rows, (columns, e) -> columns.add(0, e.getEpochDay(), e.getAmountCents(),
+            e.getCategoryId(), e.getPaymentMethodId(), e.getDescription(), withTag(e.getTags(), tag, add)));
+    }
+
+    // The tag list with the tag added or removed; tags are kept ';'-separated
+    private static String withTag(String tags, String tag, boolean add) {
+        List<String> list = new ArrayList<>();
+        for (String t : tags.split("[,;]")) {
+            if (!t.isBlank() && !t.trim().equalsIgnoreCase(tag)) list.add(t.trim());
+        }
+        if (add) list.add(tag);
+        return String.join(";", list);
+    }
+
+    // Rewrite the rows with one journal batch and one refresh
+    private void applyBatch(List<Expense> rows, BiConsumer<ExpenseColumns, Expense> rewrite) {
+        ExpenseColumns replacements = new ExpenseColumns(rows.size());
+        for (Expense e : rows) rewrite.accept(replacements, e);
+        try {
+            ledger.replaceAll(rows, replacements);
+        } catch (IOException e) {
+            showAlert("Error", "Failed to update transactions: " + e.getMessage());
+        }
+        refreshView();
+    }
+
+    // Loads the selected transaction into the form; saving the form updates it in place
     private void editSelected() {
         Expense selected = expenseTable.getSelectionModel().getSelectedItem();
         if (selected != null) {
@@ -525,229 +760,486 @@ public class Budgify extends Application {
             tagsField.setText(selected.getTags());
             typeBox.setValue(selected.getAmount() >= 0 ? "Income" : "Expense");
 
-            expenses.remove(selected);
-            updateDataFile();
-
-            // Reload from CSV
-            loadExpenses();
-            filteredExpenses.setAll(expenses);
-            updateDashboard();
-            updateCharts();
+            editingExpense = selected;
+            addButton.setText("Update Transaction");
         } else {
             showAlert("Edit", "Please select a transaction to edit.");
         }
     }
 
     private void applyFilters(String category, LocalDate from, LocalDate to) {
-        filteredExpenses.setAll(expenses.stream()
-            .filter(e -> (category.equals("All Categories") || e.getCategory().equals(category)))
-            .filter(e -> (from == null || !e.getDate().isBefore(from)))
-            .filter(e -> (to == null || !e.getDate().isAfter(to)))
-            .collect(Collectors.toList()));
-        updateDashboard();
-        updateCharts();
+        boolean allCategories = category.equals("All Categories");
+        activeView = new ExpenseRepository.Filter(null, allCategories ? null : category, from, to);
+        refreshView();
+    }
+
+    // Recompute the visible rows after the filter itself changed
+    private void refreshView() {
+        runQuery(false);
+    }
+
+    // Query the partition for activeView in the background and show the
+    // result unless a newer query has been submitted by then
+    private void runQuery(boolean debounce) {
+        ExpenseRepository.Partition source = querySource;
+        ExpenseRepository.Filter filter = activeView;
+        RowIndexList.RowComparator order = filteredExpenses.getOrder();
+        QueryExecutor.Query<ViewResult> task = cancelled -> new ViewResult(
+            LedgerEngine.query(source, filter, order, cancelled), order);
+        if (debounce) queryExecutor.submit(task, this::showResult);
+        else queryExecutor.submitNow(task, this::showResult);
+    }
+
+    private void showResult(ViewResult result, long elapsedNanos) {
+        ExpenseRepository.Page page = result.page;
+        viewTotals = page.totals();
+        partitionTotals = page.partitionTotals();
+        storeRowCount = page.partitionRows();
+        unshownRows = page.matchedRows() - page.rows().length;
+        openingBalance = page.opening();
+        closingBalance = page.closing();
+        lastQueryMillis = elapsedNanos / 1_000_000;
+        filteredExpenses.setRows(page.columns(), page.rows(), result.order);
+        render.invalidateAll();
+    }
+
+    private void updateStatus() {
+        if (statusLabel == null) return;
+        statusLabel.setText(String.format("Showing %,d of %,d transactions%s  |  Query: %d ms%s",
+            filteredExpenses.size(), storeRowCount,
+            unshownRows > 0 ? String.format(" (%,d more match)", unshownRows) : "",
+            lastQueryMillis, loadTask != null ? "  |  Loading..." : ""));
+    }
+
+    // Chart titles say so while they only cover part of the ledger
+    private String chartTitle(String title) {
+        return loadTask != null ? title + " (partial, loading...)" : title;
+    }
+
+    // Apply a single store change to the visible rows and running totals
+    private void onStoreChange(ExpenseDelta delta) {
+        Expense removed = delta.getOldValue();
+        Expense added = delta.getNewValue();
+        storeRowCount += (added != null ? 1 : 0) - (removed != null ? 1 : 0);
+        if (removed != null) {
+            partitionTotals.remove(removed);
+            adjustBalances(removed, -1);
+        }
+        if (added != null) {
+            partitionTotals.add(added);
+            adjustBalances(added, 1);
+        }
+        // A query already in flight may have snapshotted the store before this
+        // change; run it again so its result includes the change
+        if (queryExecutor.isBusy()) refreshView();
+        boolean removedVisible = removed != null && activeView.matches(removed);
+        boolean addedVisible = added != null && activeView.matches(added);
+        if (!removedVisible && !addedVisible) {
+            render.invalidate(STATUS_VIEW);
+            render.invalidate(REPORTS_VIEW);
+            return;
+        }
+
+        if (removedVisible) viewTotals.remove(removed);
+        if (addedVisible) viewTotals.add(added);
+
+        // Rows keep the table's order, so an edited row moves to where it now sorts
+        if (removedVisible) filteredExpenses.removeRow(removed);
+        if (addedVisible) filteredExpenses.addRow(added);
+        render.invalidateAll();
     }
 
-    // Dashboard now uses filteredExpenses for live stats
+    private void adjustBalances(Expense e, int direction) {
+        int day = e.getEpochDay();
+        long cents = direction * e.getAmountCents();
+        if (activeView.fromDay() != Integer.MIN_VALUE && day < activeView.fromDay()) openingBalance += cents;
+        if (day <= activeView.toDay()) closingBalance += cents;
+    }
+
+    // Dashboard cards show the totals of the visible rows
     private void updateDashboard() {
-        double totalIncome = filteredExpenses.stream().filter(e -> e.getAmount() > 0).mapToDouble(Expense::getAmount).sum();
-        double totalExpense = filteredExpenses.stream().filter(e -> e.getAmount() < 0).mapToDouble(Expense::getAmount).sum();
+        double totalIncome = viewTotals.getIncome();
+        double totalExpense = viewTotals.getExpense();
         double balance = totalIncome + totalExpense;
         if (incomeLabel != null) incomeLabel.setText(String.format("$%.2f", totalIncome));
         if (expenseLabel != null) expenseLabel.setText(String.format("$%.2f", Math.abs(totalExpense)));
         if (balanceLabel != null) balanceLabel.setText(String.format("$%.2f", balance));
-    }
 
-    private void updateCharts() {
-        if (pieTypeBox != null) updatePieChart(pieTypeBox.getValue());
-        if (monthlyChart != null) updateBarChart();
-        if (trendChart != null) updateTrendChart();
+        // Ledger balance (all categories) either side of the filtered period
+        if (periodLabel != null) {
+            StringBuilder text = new StringBuilder("Opening $");
+            Money.append(text, openingBalance).append("  \u2192  Closing $");
+            periodLabel.setText(Money.append(text, closingBalance).toString());
+        }
     }
 
     private void updateTrendChart() {
-        trendChart.getData().clear();
-
-        List<Expense> sorted = new ArrayList<>(filteredExpenses);
-        sorted.sort(Comparator.comparing(Expense::getDate));
-
-        Map<String, Double> balanceByDate = new LinkedHashMap<>();
-        double runningBalance = 0.0;
-        DateTimeFormatter dateFmt = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        for (Expense e : sorted) {
-            String date = e.getDate().format(dateFmt);
-            runningBalance += e.getAmount();
-            balanceByDate.put(date, runningBalance);
+        trendChart.setTitle(chartTitle("Spending Trend"));
+        trendSeries = viewTotals.getRunningBalance();
+        if (trendZoom != null) trendZoom = clampTrendRange(trendZoom[0], trendZoom[1]);
+        render.invalidate(TREND_SAMPLE_VIEW);
+    }
+
+    // Downsample the visible day range to about one point per pixel of chart width
+    private void resampleTrend() {
+        double[] range = trendZoom != null ? trendZoom : fullTrendRange();
+        trendXAxis.setLowerBound(range[0]);
+        trendXAxis.setUpperBound(range[1]);
+        trendXAxis.setTickUnit(Math.max(1, Math.round((range[1] - range[0]) / 8)));
+
+        // One point past each end so the line runs to the edges of the plot
+        int from = Math.max(0, trendSeries.lowerIndex(range[0]) - 1);
+        int to = Math.min(trendSeries.size(), trendSeries.lowerIndex(range[1]) + 1);
+        int width = (int) Math.max(100, trendChart.getWidth());
+        List<XYChart.Data<Number, Number>> points = new ArrayList<>();
+        for (int i : trendSeries.downsample(from, to, width)) {
+            points.add(new XYChart.Data<>(trendSeries.getX(i), trendSeries.getY(i)));
         }
+        trendBalance.getData().setAll(points);
+    }
 
-        XYChart.Series<String, Number> balanceSeries = new XYChart.Series<>();
-        balanceSeries.setName("Balance");
-        for (Map.Entry<String, Double> entry : balanceByDate.entrySet()) {
-            balanceSeries.getData().add(new XYChart.Data<>(entry.getKey(), entry.getValue()));
+    private double[] fullTrendRange() {
+        if (trendSeries.size() == 0) {
+            double today = LocalDate.now().toEpochDay();
+            return new double[] { today - 30, today };
         }
+        double first = trendSeries.getX(0), last = trendSeries.getX(trendSeries.size() - 1);
+        if (last - first < 7) return new double[] { first - 7, last + 7 };
+        return new double[] { first, last };
+    }
+
+    // Keep a zoomed range inside the data and at least a week wide; null once it covers everything
+    private double[] clampTrendRange(double lower, double upper) {
+        double[] full = fullTrendRange();
+        double span = Math.max(7, upper - lower);
+        if (span >= full[1] - full[0]) return null;
+        lower = Math.max(full[0], Math.min(lower, full[1] - span));
+        return new double[] { lower, lower + span };
+    }
 
-        trendChart.getData().add(balanceSeries);
+    private void zoomTrend(double factor, double sceneX, double sceneY) {
+        double[] range = trendZoom != null ? trendZoom : fullTrendRange();
+        double pivot = trendXAxis.getValueForDisplay(trendXAxis.sceneToLocal(sceneX, sceneY).getX()).doubleValue();
+        pivot = Math.max(range[0], Math.min(pivot, range[1]));
+        trendZoom = clampTrendRange(pivot - (pivot - range[0]) * factor, pivot + (range[1] - pivot) * factor);
+        render.invalidate(TREND_SAMPLE_VIEW);
+    }
+
+    private void panTrend(double pixels) {
+        if (trendZoom == null || trendXAxis.getWidth() <= 0) return;
+        double days = pixels * (trendZoom[1] - trendZoom[0]) / trendXAxis.getWidth();
+        trendZoom = clampTrendRange(trendZoom[0] - days, trendZoom[1] - days);
+        render.invalidate(TREND_SAMPLE_VIEW);
     }
 
     @SuppressWarnings("unchecked")
     private void updateBarChart() {
+        monthlyChart.setTitle(chartTitle("Monthly Overview"));
         monthlyChart.getData().clear();
 
-        Map<String, Double> incomeByMonth = new TreeMap<>();
-        Map<String, Double> expenseByMonth = new TreeMap<>();
-
-        DateTimeFormatter monthFmt = DateTimeFormatter.ofPattern("yyyy-MM");
-        for (Expense e : filteredExpenses) {
-            String month = e.getDate().format(monthFmt);
-            if (e.getAmount() >= 0) {
-                incomeByMonth.put(month, incomeByMonth.getOrDefault(month, 0.0) + e.getAmount());
-            } else {
-                expenseByMonth.put(month, expenseByMonth.getOrDefault(month, 0.0) + Math.abs(e.getAmount()));
-            }
-        }
-
         XYChart.Series<String, Number> incomeSeries = new XYChart.Series<>();
         incomeSeries.setName("Income");
-        for (String month : incomeByMonth.keySet()) {
-            incomeSeries.getData().add(new XYChart.Data<>(month, incomeByMonth.get(month)));
+        for (Map.Entry<YearMonth, Double> entry : viewTotals.getMonthlyIncome().entrySet()) {
+            incomeSeries.getData().add(new XYChart.Data<>(entry.getKey().toString(), entry.getValue()));
         }
 
         XYChart.Series<String, Number> expenseSeries = new XYChart.Series<>();
         expenseSeries.setName("Expenses");
-        for (String month : expenseByMonth.keySet()) {
-            expenseSeries.getData().add(new XYChart.Data<>(month, expenseByMonth.get(month)));
+        for (Map.Entry<YearMonth, Double> entry : viewTotals.getMonthlyExpense().entrySet()) {
+            expenseSeries.getData().add(new XYChart.Data<>(entry.getKey().toString(), entry.getValue()));
         }
 
         monthlyChart.getData().addAll(incomeSeries, expenseSeries);
     }
 
-    // Improved CSV loader: skips malformed lines, trims whitespace, logs errors
+    // Switches to the logged-in user's partition, loading its base CSV plus
+    // journal in the background unless it is still cached from an earlier
+    // login. Views follow the rows as they are loaded; edits wait until the
+    // load is done. Malformed lines are skipped and logged
     private void loadExpenses() {
-        expenses.clear();
-        File file = new File(CSV_FILE);
-        if (!file.exists()) return;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(CSV_FILE))) {
-            String line;
-            int lineNum = 0;
-            while ((line = reader.readLine()) != null) {
-                lineNum++;
-                if (line.trim().isEmpty()) continue;
-                String[] parts = line.split(",", -1);
-                if (parts.length < 6) {
-                    System.err.println("Skipping malformed line " + lineNum + ": " + line);
-                    continue;
-                }
-                try {
-                    LocalDate date = LocalDate.parse(parts[0].trim());
-                    String category = parts[1].trim();
-                    double amount = Double.parseDouble(parts[2].trim());
-                    String description = parts[3].trim();
-                    String paymentMethod = parts[4].trim();
-                    String tags = parts[5].trim();
-
-                    expenses.add(new Expense(
-                        date, category, amount,
-                        description, paymentMethod, tags
-                    ));
-                } catch (Exception ex) {
-                    System.err.println("Skipping bad data at line " + lineNum + ": " + line);
-                }
+        stopFollowing();
+        store.removeListener(storeListener);
+        ledger = null;
+        querySource = null;
+        store = new ExpenseStore();
+        refreshView();
+
+        User user = currentUser;
+        Task<ExpenseRepository.Partition> task = new Task<>() {
+            @Override
+            protected ExpenseRepository.Partition call() throws IOException {
+                return engine.open(user, (opened, bytes, totalBytes) -> {
+                    updateProgress(bytes, totalBytes);
+                    Platform.runLater(() -> showPartialLoad(this, opened));
+                });
             }
-            filteredExpenses.setAll(expenses);
+        };
+        task.setOnSucceeded(_ -> {
+            if (loadTask != task) return;
+            loadTask = null;
+            ledger = task.getValue();
+            querySource = ledger;
+            store = ledger.getStore() != null ? ledger.getStore() : new ExpenseStore();
+            store.addListener(storeListener);
+            refreshView();
+            if (ledger instanceof Ledger followed) startFollowing(followed);
+        });
+        task.setOnFailed(_ -> {
+            if (loadTask != task) return;
+            // Leave the partition unloaded rather than let a save overwrite it
+            loadTask = null;
+            querySource = null;
+            store = new ExpenseStore();
+            store.addListener(storeListener);
+            refreshView();
+            showAlert("Error", "Failed to load expenses: " + task.getException().getMessage());
+        });
+        loadTask = task;
+        showProgress(task, false);
+        render.invalidateAll();
+
+        Thread loader = new Thread(task, "budgify-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void showProgress(Task<?> task, boolean cancellable) {
+        if (busyIndicator == null) return;
+        busyIndicator.progressProperty().bind(task.progressProperty());
+        busyIndicator.visibleProperty().bind(task.runningProperty());
+        taskLabel.textProperty().bind(task.messageProperty());
+        taskLabel.visibleProperty().bind(task.runningProperty());
+        cancelTaskButton.visibleProperty().bind(task.runningProperty().and(new SimpleBooleanProperty(cancellable)));
+        cancelTaskButton.setOnAction(_ -> task.cancel());
+    }
+
+    private void startFollowing(Ledger followed) {
+        try {
+            follower = new BaseFileFollower(followed, Platform::runLater, appended -> ingestAppended(followed, appended));
         } catch (IOException e) {
-            showAlert("Error", "Failed to load expenses: " + e.getMessage());
+            System.err.println("Cannot watch " + followed.getBaseFile() + " for appended rows: " + e.getMessage());
         }
     }
 
-    // Load users from CSV
-    private void loadUsers() {
-        users.clear();
-        File file = new File(USERS_FILE);
-        if (!file.exists()) return;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", -1);
-                if (parts.length >= 3) {
-                    users.put(parts[0], new User(parts[0], parts[1], parts[2]));
-                }
-            }
+    private void stopFollowing() {
+        if (follower == null) return;
+        try {
+            follower.close();
         } catch (IOException e) {
-            showAlert("Error", "Failed to load users: " + e.getMessage());
+            System.err.println("Failed to stop watching for appended rows: " + e.getMessage());
         }
+        follower = null;
     }
 
-    private void saveToFile(Expense expense) {
-        try (FileWriter writer = new FileWriter(CSV_FILE, true)) {
-            writer.write(String.format("%s,%s,%.2f,%s,%s,%s\n",
-                expense.getDate(),
-                expense.getCategory(),
-                expense.getAmount(),
-                expense.getDescription(),
-                expense.getPaymentMethod(),
-                expense.getTags()
-            ));
+    // Rows another program appended to a partition's file. A batch read before
+    // switching partitions is still applied, to the ledger it came from.
+    private void ingestAppended(Ledger source, Ledger.Appended appended) {
+        if (appended.needsReload()) {
+            // Rewritten or truncated underneath us: read it again from scratch
+            if (source == ledger && loadTask == null) loadExpenses();
+            return;
+        }
+        boolean bulk = source == ledger && appended.size() > BULK_APPEND_ROWS;
+        if (bulk) store.removeListener(storeListener);
+        source.applyAppended(appended);
+        if (bulk) {
+            store.addListener(storeListener);
+            refreshView();
+        }
+    }
+
+    // Show what has been loaded so far, one query at a time
+    private void showPartialLoad(Task<ExpenseRepository.Partition> task, Ledger loading) {
+        if (loadTask != task) return;
+        querySource = loading;
+        store = loading.getStore();
+        if (!queryExecutor.isBusy()) refreshView();
+    }
+
+    private void loadUsers() {
+        try {
+            users = engine.loadUsers();
         } catch (IOException e) {
-            showAlert("Error", "Failed to save transaction: " + e.getMessage());
+            users = new HashMap<>();
+            showAlert("Error", "Failed to load users: " + e.getMessage());
         }
     }
 
     private void saveUser(User user) {
-        try (FileWriter writer = new FileWriter(USERS_FILE, true)) {
-            writer.write(String.format("%s,%s,%s\n", user.username, user.password, user.role));
+        try {
+            engine.saveUser(user);
         } catch (IOException e) {
             showAlert("Error", "Failed to save user: " + e.getMessage());
         }
     }
 
-    private void updateDataFile() {
-        try (FileWriter writer = new FileWriter(CSV_FILE)) {
-            for (Expense e : expenses) {
-                writer.write(String.format("%s,%s,%.2f,%s,%s,%s\n",
-                    e.getDate(),
-                    e.getCategory(),
-                    e.getAmount(),
-                    e.getDescription(),
-                    e.getPaymentMethod(),
-                    e.getTags()
-                ));
+    // Bring in a bank statement (CSV, OFX or QIF). Parsing, validation and
+    // the journal write run in the background; the views refresh once at the end.
+    private void importStatement() {
+        if (ledger == null || loadTask != null) {
+            showAlert("Import", "Transactions are still loading; please import again in a moment.");
+            return;
+        }
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import Statement");
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("Bank Statements", "*.csv", "*.ofx", "*.qfx", "*.qif"));
+        File file = fileChooser.showOpenDialog(null);
+        if (file == null) return;
+
+        Path path = file.toPath();
+        StatementImporter.Format format = StatementImporter.Format.of(path);
+        StatementImporter.ColumnMapping mapping = null;
+        String[] payment = { "Bank Transfer" };
+        if (format == StatementImporter.Format.CSV) {
+            try {
+                mapping = showColumnMappingDialog(StatementImporter.readHeader(path), payment);
+            } catch (IOException e) {
+                showAlert("Error", "Failed to read statement: " + e.getMessage());
+                return;
+            }
+            if (mapping == null) return;
+        }
+
+        ExpenseRepository.Partition target = ledger;
+        StatementImporter.ColumnMapping columns = mapping;
+        Task<StatementImporter.Result> task = new Task<>() {
+            @Override
+            protected StatementImporter.Result call() throws IOException {
+                updateMessage("Importing " + path.getFileName() + "...");
+                StatementImporter.Result result = StatementImporter.read(path, format, columns, payment[0],
+                    target.snapshot(), this::isCancelled, this::updateProgress);
+                updateMessage("Saving imported transactions...");
+                target.addAll(result.getRows());
+                return result;
+            }
+        };
+        task.setOnSucceeded(_ -> {
+            if (target == ledger) refreshView();
+            StatementImporter.Result result = task.getValue();
+            StringBuilder summary = new StringBuilder(String.format("Imported %,d transactions.%nSkipped %,d already in the ledger.",
+                result.getRows().size(), result.getDuplicates()));
+            if (result.getRejectedCount() > 0) {
+                summary.append(String.format("%nRejected %,d rows:", result.getRejectedCount()));
+                for (String line : result.getRejected().subList(0, Math.min(10, result.getRejected().size()))) {
+                    summary.append("\n  ").append(line);
+                }
+            }
+            showAlert("Import", summary.toString());
+        });
+        task.setOnFailed(_ -> showAlert("Error", "Import failed: " + task.getException().getMessage()));
+        showProgress(task, true);
+
+        Thread importer = new Thread(task, "budgify-import");
+        importer.setDaemon(true);
+        importer.start();
+    }
+
+    // Which CSV column holds which field, starting from what the header suggests;
+    // null if cancelled. payment[0] receives the method for rows that name none.
+    private StatementImporter.ColumnMapping showColumnMappingDialog(String[] header, String[] payment) {
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Import Statement");
+        dialog.setHeaderText("Match the statement's columns");
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        StatementImporter.ColumnMapping detected = StatementImporter.ColumnMapping.fromHeader(header);
+        List<String> choices = new ArrayList<>();
+        choices.add("(none)");
+        for (int i = 0; i < header.length; i++) choices.add((i + 1) + ": " + header[i]);
+        String[] fields = { "Date", "Amount", "Debit (money out)", "Credit (money in)", "Description",
+            "Category", "Payment Method", "Tags" };
+        int[] preset = { detected.date, detected.amount, detected.debit, detected.credit, detected.description,
+            detected.category, detected.paymentMethod, detected.tags };
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 150, 10, 10));
+        List<ComboBox<String>> boxes = new ArrayList<>();
+        for (int i = 0; i < fields.length; i++) {
+            ComboBox<String> box = new ComboBox<>(FXCollections.observableArrayList(choices));
+            box.getSelectionModel().select(preset[i] + 1);
+            boxes.add(box);
+            grid.add(new Label(fields[i] + ":"), 0, i);
+            grid.add(box, 1, i);
+        }
+        ComboBox<String> defaultPayment = new ComboBox<>(FXCollections.observableArrayList(PAYMENT_METHODS));
+        defaultPayment.setValue(payment[0]);
+        grid.add(new Label("Default Payment:"), 0, fields.length);
+        grid.add(defaultPayment, 1, fields.length);
+        dialog.getDialogPane().setContent(grid);
+
+        while (true) {
+            Optional<ButtonType> result = dialog.showAndWait();
+            if (!result.isPresent() || result.get() != ButtonType.OK) return null;
+            StatementImporter.ColumnMapping mapping = new StatementImporter.ColumnMapping();
+            int[] picked = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) picked[i] = boxes.get(i).getSelectionModel().getSelectedIndex() - 1;
+            mapping.date = picked[0];
+            mapping.amount = picked[1];
+            mapping.debit = picked[2];
+            mapping.credit = picked[3];
+            mapping.description = picked[4];
+            mapping.category = picked[5];
+            mapping.paymentMethod = picked[6];
+            mapping.tags = picked[7];
+            if (mapping.isComplete()) {
+                payment[0] = defaultPayment.getValue();
+                return mapping;
             }
-        } catch (IOException e) {
-            showAlert("Error", "Failed to update data file: " + e.getMessage());
+            showAlert("Import", "Choose the date column and an amount, debit or credit column.");
         }
     }
 
+    // Stream the rows shown on the Transactions tab to a CSV file in the
+    // background; a .csv.gz name writes it compressed
     private void exportCSV() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Export CSV");
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("CSV Files", "*.csv"),
+            new FileChooser.ExtensionFilter("Compressed CSV", "*.csv.gz"));
         File file = fileChooser.showSaveDialog(null);
-
-        if (file != null) {
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write("Date,Category,Amount,Description,Payment,Tags\n");
-                for (Expense e : filteredExpenses) {
-                    writer.write(String.format("%s,%s,%.2f,%s,%s,%s\n",
-                        e.getDate(),
-                        e.getCategory(),
-                        e.getAmount(),
-                        e.getDescription(),
-                        e.getPaymentMethod(),
-                        e.getTags()
-                    ));
-                }
-                showAlert("Success", "Data exported to CSV successfully");
-            } catch (IOException e) {
-                showAlert("Error", "Failed to export CSV: " + e.getMessage());
+        if (file == null) return;
+
+        Path path = file.toPath();
+        ExpenseColumns columns = filteredExpenses.getColumns() != null
+            ? filteredExpenses.getColumns().snapshot() : new ExpenseColumns();
+        int[] rows = filteredExpenses.toRowArray();
+        long started = System.nanoTime();
+        Task<Long> task = new Task<>() {
+            @Override
+            protected Long call() throws IOException {
+                updateMessage("Exporting " + path.getFileName() + "...");
+                return CsvExporter.export(path, columns, rows, this::isCancelled, (written, total, bytes) -> {
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    updateProgress(written, total);
+                    updateMessage(String.format("Exported %,d of %,d rows (%,.0f rows/s)", written, total, written / seconds));
+                });
             }
-        }
+        };
+        task.setOnSucceeded(_ -> {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            showAlert("Success", String.format("Exported %,d rows (%.1f MB) in %.1f s, %,.0f rows/s.",
+                rows.length, task.getValue() / 1e6, seconds, rows.length / seconds));
+        });
+        task.setOnFailed(_ -> showAlert("Error", "Failed to export CSV: " + task.getException().getMessage()));
+        showProgress(task, true);
+
+        Thread exporter = new Thread(task, "budgify-export");
+        exporter.setDaemon(true);
+        exporter.start();
     }
 
     private HBox createDashboardCards() {
         balanceLabel = new Label("$0.00");
         balanceLabel.getStyleClass().add("balance-label");
-        VBox balanceCard = createDashboardCard("Total Balance", balanceLabel, "balance-card");
+        periodLabel = new Label();
+        periodLabel.getStyleClass().add("period-label");
+        VBox balanceBox = new VBox(2, balanceLabel, periodLabel);
+        balanceBox.setAlignment(Pos.CENTER);
+        VBox balanceCard = createDashboardCard("Total Balance", balanceBox, "balance-card");
 
         incomeLabel = new Label("$0.00");
         incomeLabel.getStyleClass().add("income-label");
@@ -757,8 +1249,15 @@ public class Budgify extends Application {
         expenseLabel.getStyleClass().add("expense-label");
         VBox expenseCard = createDashboardCard("Expenses", expenseLabel, "expense-card");
 
-        HBox cardsBox = new HBox(15, balanceCard, incomeCard, expenseCard);
+        // Spins while the ledger is loading (and the cards only cover part of it) or importing
+        busyIndicator = new ProgressIndicator();
+        busyIndicator.setPrefSize(40, 40);
+        busyIndicator.managedProperty().bind(busyIndicator.visibleProperty());
+        busyIndicator.setVisible(false);
+
+        HBox cardsBox = new HBox(15, balanceCard, incomeCard, expenseCard, busyIndicator);
         cardsBox.setAlignment(Pos.CENTER);
+        render.register(DASHBOARD_VIEW, null, this::updateDashboard);
         return cardsBox;
     }
 
@@ -788,7 +1287,7 @@ public class Budgify extends Application {
         pieTypeBox = new ComboBox<>(FXCollections.observableArrayList("Expenses", "Income", "All"));
         pieTypeBox.setValue("Expenses");
         pieTypeBox.setPrefWidth(120);
-        pieTypeBox.valueProperty().addListener((_, __, newVal) -> updatePieChart(newVal));
+        pieTypeBox.valueProperty().addListener((_, __, newVal) -> render.invalidate(PIE_VIEW));
 
         // Totals label
         Label totalsLabel = new Label();
@@ -824,11 +1323,44 @@ public class Budgify extends Application {
         monthlyTab.getStyleClass().add("chart-tab");
 
         // Trend Line Chart
-        CategoryAxis trendXAxis = new CategoryAxis();
+        // Epoch days on a numeric axis, labelled as dates
+        trendXAxis = new NumberAxis();
+        trendXAxis.setAutoRanging(false);
+        trendXAxis.setTickLabelFormatter(new StringConverter<Number>() {
+            @Override
+            public String toString(Number day) {
+                return LocalDate.ofEpochDay(Math.round(day.doubleValue())).toString();
+            }
+
+            @Override
+            public Number fromString(String text) {
+                return LocalDate.parse(text).toEpochDay();
+            }
+        });
         NumberAxis trendYAxis = new NumberAxis();
         trendChart = new LineChart<>(trendXAxis, trendYAxis);
         trendChart.setTitle("Spending Trend");
         trendChart.getStyleClass().add("chart");
+        trendChart.setCreateSymbols(false);
+        trendChart.setAnimated(false);
+        trendBalance = new XYChart.Series<>();
+        trendBalance.setName("Balance");
+        trendChart.getData().add(trendBalance);
+
+        // Scroll to zoom around the pointer, drag to pan, double-click to show everything
+        trendChart.setOnScroll(e -> zoomTrend(e.getDeltaY() > 0 ? 0.8 : 1.25, e.getSceneX(), e.getSceneY()));
+        trendChart.setOnMousePressed(e -> trendDragX = e.getX());
+        trendChart.setOnMouseDragged(e -> {
+            panTrend(e.getX() - trendDragX);
+            trendDragX = e.getX();
+        });
+        trendChart.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) {
+                trendZoom = null;
+                render.invalidate(TREND_SAMPLE_VIEW);
+            }
+        });
+        trendChart.widthProperty().addListener((obs, oldWidth, newWidth) -> render.invalidate(TREND_SAMPLE_VIEW));
         Tab trendTab = new Tab("Trend", trendChart);
         trendTab.getStyleClass().add("chart-tab");
 
@@ -839,51 +1371,31 @@ public class Budgify extends Application {
         reportsBox.getStyleClass().add("reports-panel");
 
         // Summary section
-        Label summaryLabel = new Label();
+        summaryLabel = new Label();
         summaryLabel.setStyle("-fx-font-size: 14px; -fx-padding: 10;");
 
-        double totalIncome = expenses.stream().filter(x -> x.getAmount() > 0).mapToDouble(Expense::getAmount).sum();
-        double totalExpense = expenses.stream().filter(x -> x.getAmount() < 0).mapToDouble(Expense::getAmount).sum();
-        long count = expenses.size();
-        summaryLabel.setText(
-            "Total Transactions: " + count +
-            "\nTotal Income: $" + String.format("%.2f", totalIncome) +
-            "\nTotal Expenses: $" + String.format("%.2f", Math.abs(totalExpense)) +
-            "\nNet Balance: $" + String.format("%.2f", totalIncome + totalExpense)
-        );
-
         // Transactions Table (read-only)
         TableView<Expense> reportTable = new TableView<>();
         reportTable.setItems(filteredExpenses);
         reportTable.setPlaceholder(new Label("No transactions recorded yet"));
         reportTable.setColumnResizePolicy(TableView.UNCONSTRAINED_RESIZE_POLICY);
 
-        TableColumn<Expense, String> dateCol = new TableColumn<>("Date");
-        dateCol.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getFormattedDate()));
-        TableColumn<Expense, String> categoryCol = new TableColumn<>("Category");
-        categoryCol.setCellValueFactory(new PropertyValueFactory<>("category"));
-        TableColumn<Expense, String> amountCol = new TableColumn<>("Amount");
-        amountCol.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getFormattedAmount()));
-        TableColumn<Expense, String> descCol = new TableColumn<>("Description");
-        descCol.setCellValueFactory(new PropertyValueFactory<>("description"));
-        TableColumn<Expense, String> paymentCol = new TableColumn<>("Payment");
-        paymentCol.setCellValueFactory(new PropertyValueFactory<>("paymentMethod"));
-        TableColumn<Expense, String> tagsCol = new TableColumn<>("Tags");
-        tagsCol.setCellValueFactory(new PropertyValueFactory<>("tags"));
-        TableColumn<Expense, String> typeCol = new TableColumn<>("Type");
-        typeCol.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getAmount() >= 0 ? "Income" : "Expense"));
-
-        reportTable.getColumns().addAll(dateCol, categoryCol, amountCol, descCol, paymentCol, tagsCol, typeCol);
-
-        // CSV Export Button
+        addExpenseColumns(reportTable);
+
+        // Statement import and CSV export buttons
+        Button importBtn = new Button("Import Statement");
+        importBtn.getStyleClass().add("report-button");
+        importBtn.setOnAction(e -> importStatement());
         Button exportCsvBtn = new Button("Export CSV Data");
         exportCsvBtn.getStyleClass().add("report-button");
         exportCsvBtn.setOnAction(e -> exportCSV());
+        HBox fileButtons = new HBox(10, importBtn, exportCsvBtn);
+        fileButtons.setAlignment(Pos.CENTER);
 
         reportsBox.getChildren().addAll(
             new Label("Summary:"), summaryLabel,
             new Label("All Transactions:"), reportTable,
-            exportCsvBtn
+            fileButtons
         );
 
         Tab reportsTab = new Tab("Reports", reportsBox);
@@ -891,19 +1403,30 @@ public class Budgify extends Application {
 
         tabPane.getTabs().addAll(categoryTab, monthlyTab, trendTab, reportsTab);
 
-        tabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
-            updateCharts();
-        });
-
-        filteredExpenses.addListener((ListChangeListener<Expense>) c -> {
-            updatePieChart(pieTypeBox.getValue());
-        });
-
-        updatePieChart(pieTypeBox.getValue());
+        // Each chart is redrawn only while its tab is selected
+        render.register(PIE_VIEW, categoryTab.selectedProperty(), () -> updatePieChart(pieTypeBox.getValue()));
+        render.register(MONTHLY_VIEW, monthlyTab.selectedProperty(), this::updateBarChart);
+        render.register(TREND_VIEW, trendTab.selectedProperty(), this::updateTrendChart);
+        render.register(TREND_SAMPLE_VIEW, trendTab.selectedProperty(), this::resampleTrend);
+        render.register(REPORTS_VIEW, reportsTab.selectedProperty(), this::updateReportSummary);
 
         return tabPane;
     }
 
+    // Totals of the whole ledger, whatever the active filter
+    private void updateReportSummary() {
+        double totalIncome = partitionTotals.getIncome();
+        double totalExpense = partitionTotals.getExpense();
+        long count = storeRowCount;
+        summaryLabel.setText(
+            (loadTask != null ? "Partial totals, still loading...\n" : "") +
+            "Total Transactions: " + count +
+            "\nTotal Income: $" + String.format("%.2f", totalIncome) +
+            "\nTotal Expenses: $" + String.format("%.2f", Math.abs(totalExpense)) +
+            "\nNet Balance: $" + String.format("%.2f", totalIncome + totalExpense)
+        );
+    }
+
     // Helper class for breakdown table
     private static class CategoryBreakdown {
         String category;
@@ -918,31 +1441,17 @@ public class Budgify extends Application {
 
     @SuppressWarnings("unchecked")
     private void updatePieChart(String type) {
+        categoryChart.setTitle(chartTitle("By Category"));
         categoryChart.getData().clear();
 
-        Map<String, Double> incomeTotals = new LinkedHashMap<>();
-        Map<String, Double> expenseTotals = new LinkedHashMap<>();
-        for (String cat : CATEGORIES) {
-            incomeTotals.put(cat, 0.0);
-            expenseTotals.put(cat, 0.0);
-        }
-
-        for (Expense e : filteredExpenses) {
-            if (e.getAmount() > 0) {
-                incomeTotals.put(e.getCategory(), incomeTotals.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
-            } else if (e.getAmount() < 0) {
-                expenseTotals.put(e.getCategory(), expenseTotals.getOrDefault(e.getCategory(), 0.0) + e.getAmount());
-            }
-        }
-
         ObservableList<PieChart.Data> pieData = FXCollections.observableArrayList();
-        double totalIncome = incomeTotals.values().stream().mapToDouble(Double::doubleValue).sum();
-        double totalExpense = expenseTotals.values().stream().mapToDouble(Math::abs).sum();
+        double totalIncome = viewTotals.getIncome();
+        double totalExpense = Math.abs(viewTotals.getExpense());
 
         if ("Expenses".equals(type) || "All".equals(type)) {
             for (String cat : CATEGORIES) {
-                double val = Math.abs(expenseTotals.get(cat));
-                if (val > 0) {
+                double val = Math.abs(viewTotals.getCategoryExpense(cat));
+                if (viewTotals.hasCategoryExpense(cat) && val > 0) {
                     PieChart.Data slice = new PieChart.Data(cat + " (Expense)", val);
                     pieData.add(slice);
                 }
@@ -950,8 +1459,8 @@ public class Budgify extends Application {
         }
         if ("Income".equals(type) || "All".equals(type)) {
             for (String cat : CATEGORIES) {
-                double val = incomeTotals.get(cat);
-                if (val > 0) {
+                double val = viewTotals.getCategoryIncome(cat);
+                if (viewTotals.hasCategoryIncome(cat) && val > 0) {
                     PieChart.Data slice = new PieChart.Data(cat + " (Income)", val);
                     pieData.add(slice);
                 }
@@ -994,7 +1503,7 @@ public class Budgify extends Application {
         if (breakdownTable != null) {
             ObservableList<CategoryBreakdown> breakdownData = FXCollections.observableArrayList();
             for (String cat : CATEGORIES) {
-                breakdownData.add(new CategoryBreakdown(cat, incomeTotals.get(cat), expenseTotals.get(cat)));
+                breakdownData.add(new CategoryBreakdown(cat, viewTotals.getCategoryIncome(cat), viewTotals.getCategoryExpense(cat)));
             }
             breakdownTable.setItems(breakdownData);
         }
@@ -1048,8 +1557,9 @@ public class Budgify extends Application {
             String pass = password.getText().trim();
 
             if (result.get() == loginButtonType) {
-                if (users.containsKey(user) && users.get(user).password.equals(pass)) {
-                    currentUser = users.get(user);
+                User account = LedgerEngine.login(users, user, pass);
+                if (account != null) {
+                    currentUser = account;
                     showAlert("Login Success", "Welcome, " + user + " (" + currentUser.role + ")");
                     return true;
                 } else {
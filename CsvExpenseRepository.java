@@ -0,0 +1,117 @@
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The original flat-file layout: accounts in users.csv, the admins' shared
+// ledger in expenses.csv and every other user's in expenses-<name>.csv.
+// Partitions are loaded into memory and kept in a LedgerCache.
+//
+// Before per-user files every account worked on expenses.csv, whose rows
+// record no owner. So the first time a non-admin opens their partition, each
+// non-admin account then in users.csv gets a copy of the shared rows in its
+// own file, and nobody loses the rows they saw. expenses.csv.split lists the
+// accounts copied, ending in a "." line once all are; accounts made later
+// start empty.
+public class CsvExpenseRepository implements ExpenseRepository {
+
+    // Shared ledger from before per-user partitions; admins keep working on it
+    private static final String CSV_FILE = "expenses.csv";
+    private static final String USERS_FILE = "users.csv";
+    private static final String SPLIT_FILE = "expenses.csv.split";
+    private static final String SPLIT_DONE = ".";
+
+    private final Path directory;
+    private final LedgerCache ledgers;
+    private final ReentrantLock splitLock = new ReentrantLock();
+    private volatile boolean split;
+
+    // Files live in the directory; at most maxCachedRows rows stay loaded
+    public CsvExpenseRepository(Path directory, long maxCachedRows) {
+        this.directory = directory;
+        this.ledgers = new LedgerCache(maxCachedRows);
+    }
+
+    @Override
+    public Map<String, User> loadUsers() throws IOException {
+        Map<String, User> users = new HashMap<>();
+        Path file = directory.resolve(USERS_FILE);
+        if (!Files.exists(file)) return users;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", -1);
+                if (parts.length >= 3) {
+                    users.put(parts[0], new User(parts[0], parts[1], parts[2]));
+                }
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public void saveUser(User user) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(directory.resolve(USERS_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(String.format("%s,%s,%s\n", user.username, user.password, user.role));
+        }
+    }
+
+    @Override
+    public Ledger open(User user, Ledger.LoadProgress progress) throws IOException {
+        if (!user.isAdmin()) splitSharedLedger(progress);
+        return ledgers.open(dataFile(user), progress);
+    }
+
+    // Copy the shared rows into the file of every non-admin account that has
+    // not had them yet; see the class comment
+    private void splitSharedLedger(Ledger.LoadProgress progress) throws IOException {
+        if (split) return;
+        splitLock.lock();
+        try {
+            if (split) return;
+            Path marker = directory.resolve(SPLIT_FILE);
+            Set<String> copied = new HashSet<>();
+            if (Files.exists(marker)) copied.addAll(Files.readAllLines(marker, StandardCharsets.UTF_8));
+            if (!copied.contains(SPLIT_DONE)) {
+                Path shared = directory.resolve(CSV_FILE);
+                ExpenseColumns rows = new ExpenseColumns(1);
+                if (Files.exists(shared)) {
+                    ExpenseStore.Snapshot snapshot = ledgers.open(shared, progress).getStore().snapshot();
+                    int[] live = snapshot.liveRows();
+                    rows = new ExpenseColumns(Math.max(1, live.length));
+                    for (int row : live) rows.add(snapshot.getColumns(), row, 0);
+                }
+                List<User> accounts = new ArrayList<>(loadUsers().values());
+                accounts.sort(Comparator.comparing(u -> u.username));
+                for (User account : accounts) {
+                    if (account.isAdmin() || copied.contains(account.username)) continue;
+                    ledgers.open(dataFile(account), progress).addAll(rows);
+                    markSplit(marker, account.username);
+                }
+                markSplit(marker, SPLIT_DONE);
+            }
+            split = true;
+        } finally {
+            splitLock.unlock();
+        }
+    }
+
+    private static void markSplit(Path marker, String line) throws IOException {
+        Files.writeString(marker, line + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Admins share the original ledger; every other user has their own file
+    public Path dataFile(User user) {
+        if (user.isAdmin()) return directory.resolve(CSV_FILE);
+        return directory.resolve("expenses-" + URLEncoder.encode(user.username, StandardCharsets.UTF_8) + ".csv");
+    }
+
+    // Folds every loaded partition's journal into its CSV file
+    @Override
+    public void close() throws IOException {
+        ledgers.close();
+    }
+}
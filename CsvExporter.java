@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.*;
+
+// Streams rows to a CSV file (gzip-compressed when the name ends in .gz).
+//
+// Rows are formatted straight into a byte buffer: dates and amounts as
+// digits, category and payment method from pre-encoded names, description
+// and tags copied from the string heaps without decoding, so a row allocates
+// nothing. The output goes to a ".part" file beside the target, which is
+// renamed over it only once complete; a cancelled or failed export leaves
+// the target untouched.
+public final class CsvExporter {
+
+    private static final byte[] HEADER = "Date,Category,Amount,Description,Payment,Tags\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_BYTES = 1 << 20;
+    // Longest row apart from its strings: date, amount, separators
+    private static final int ROW_OVERHEAD = 48;
+    private static final int PROGRESS_ROWS = 1 << 16;
+
+    public interface Progress {
+        void written(int rows, int totalRows, long bytes);
+    }
+
+    private CsvExporter() {}
+
+    // Write the rows of the columns in the given order; returns the bytes
+    // written (compressed size for .gz). Throws CancellationException once
+    // cancelled turns true.
+    public static long export(Path file, ExpenseColumns columns, int[] rows,
+                              BooleanSupplier cancelled, Progress progress) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".part");
+        boolean gzip = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+        byte[][] categories = names(Expense.CATEGORY_DICTIONARY);
+        byte[][] payments = names(Expense.PAYMENT_DICTIONARY);
+        StringColumn descriptions = columns.descriptionColumn();
+        StringColumn tags = columns.tagColumn();
+        boolean done = false;
+        try {
+            try (CountingOutputStream counted = new CountingOutputStream(Files.newOutputStream(temp));
+                 OutputStream out = gzip ? new FastGzipStream(counted) : counted) {
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+                buf.put(HEADER);
+                for (int i = 0; i < rows.length; i++) {
+                    int row = rows[i];
+                    byte[] category = categories[columns.getCategoryId(row) & 0xffff];
+                    byte[] payment = payments[columns.getPaymentMethodId(row) & 0xffff];
+                    int need = ROW_OVERHEAD + category.length + payment.length
+                        + descriptions.length(row) + tags.length(row);
+                    if (buf.remaining() < need) {
+                        drain(buf, out);
+                        if (buf.capacity() < need) buf = ByteBuffer.allocate(need);
+                    }
+                    putDate(buf, columns.getEpochDay(row));
+                    buf.put((byte) ',').put(category).put((byte) ',');
+                    putCents(buf, columns.getCents(row));
+                    buf.put((byte) ',');
+                    descriptions.copyTo(row, buf);
+                    buf.put((byte) ',').put(payment).put((byte) ',');
+                    tags.copyTo(row, buf);
+                    buf.put((byte) '\n');
+
+                    if ((i + 1) % PROGRESS_ROWS == 0) {
+                        if (cancelled.getAsBoolean()) throw new CancellationException();
+                        progress.written(i + 1, rows.length, counted.count);
+                    }
+                }
+                drain(buf, out);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+            long bytes = Files.size(file);
+            progress.written(rows.length, rows.length, bytes);
+            return bytes;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void drain(ByteBuffer buf, OutputStream out) throws IOException {
+        out.write(buf.array(), 0, buf.position());
+        buf.clear();
+    }
+
+    // Every id the columns can hold, so values added during the export are blank
+    private static byte[][] names(ValueDictionary dictionary) {
+        byte[][] names = new byte[ValueDictionary.MAX_VALUES][];
+        Arrays.fill(names, new byte[0]);
+        int size = dictionary.size();
+        for (int id = 0; id < size; id++) names[id] = dictionary.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        return names;
+    }
+
+    // yyyy-MM-dd, as LocalDate.toString() writes years 0 to 9999
+    static void putDate(ByteBuffer buf, int epochDay) {
+        // Civil date from days since 1970-01-01 (era-based, valid for any day)
+        long z = epochDay + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        if (year < 0 || year > 9999) {
+            buf.put(LocalDate.ofEpochDay(epochDay).toString().getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        buf.put((byte) ('0' + year / 1000)).put((byte) ('0' + year / 100 % 10))
+            .put((byte) ('0' + year / 10 % 10)).put((byte) ('0' + year % 10)).put((byte) '-')
+            .put((byte) ('0' + month / 10)).put((byte) ('0' + month % 10)).put((byte) '-')
+            .put((byte) ('0' + day / 10)).put((byte) ('0' + day % 10));
+    }
+
+    // "-1234.50", as Money.append() writes it
+    static void putCents(ByteBuffer buf, long cents) {
+        if (cents < 0) {
+            buf.put((byte) '-');
+            cents = -cents;
+        }
+        long whole = cents / 100;
+        int fraction = (int) (cents % 100);
+        int start = buf.position();
+        do {
+            buf.put((byte) ('0' + whole % 10));
+            whole /= 10;
+        } while (whole > 0);
+        // Digits went in backwards
+        for (int i = start, j = buf.position() - 1; i < j; i++, j--) {
+            byte t = buf.get(i);
+            buf.put(i, buf.get(j));
+            buf.put(j, t);
+        }
+        buf.put((byte) '.').put((byte) ('0' + fraction / 10)).put((byte) ('0' + fraction % 10));
+    }
+
+    // Favours speed over ratio; a CSV export still shrinks several times over
+    private static final class FastGzipStream extends GZIPOutputStream {
+        FastGzipStream(OutputStream out) throws IOException {
+            super(out, 1 << 16);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
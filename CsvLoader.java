@@ -0,0 +1,368 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+
+// Parallel loader for the base CSV file.
+//
+// The file is split into newline-aligned chunks that are memory-mapped and
+// parsed on the fork-join pool straight into ExpenseColumns. Dates and amounts
+// are parsed from the mapped bytes, description and tag bytes are copied into
+// the string columns undecoded, and category and payment method go through a
+// per-chunk cache to their dictionary ids, so a well-formed row allocates
+// nothing. Chunks are appended to the store in file order with their line
+// number as id, and malformed lines are reported with their line numbers
+// just like the line-by-line reader did.
+public final class CsvLoader {
+
+    // Files smaller than this are parsed as a single chunk
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final int FIELDS = 6;
+
+    private CsvLoader() {}
+
+    // Returns the number of lines read
+    public static int load(Path file, ExpenseStore store) throws IOException {
+        return load(file, store, 0, Long.MAX_VALUE, 0, end -> { });
+    }
+
+    // Load the rows from the byte offset (just past a newline) up to end, or
+    // the end of the file if that comes first, numbering lines after firstLine;
+    // returns the number of lines read. progress gets the file offset reached
+    // each time a chunk joins the store.
+    public static int load(Path file, ExpenseStore store, long offset, long end, int firstLine,
+                           LongConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(end, channel.size());
+            if (size <= offset) return 0;
+
+            long[] bounds = chunkBounds(channel, offset, size);
+            List<ChunkParser> parsers = new ArrayList<>(bounds.length - 1);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long length = bounds[i + 1] - start;
+                parsers.add(new ChunkParser(channel.map(FileChannel.MapMode.READ_ONLY, start, length)));
+            }
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            for (ChunkParser parser : parsers) pool.execute(parser);
+
+            // Merge in file order, turning chunk-local line numbers into file line numbers
+            int lines = 0;
+            for (int chunk = 0; chunk < parsers.size(); chunk++) {
+                ChunkParser parser = parsers.get(chunk);
+                parser.join();
+                store.appendAll(parser.columns, firstLine);
+                parser.report(firstLine);
+                firstLine += parser.lineCount;
+                lines += parser.lineCount;
+                progress.accept(bounds[chunk + 1]);
+            }
+            return lines;
+        }
+    }
+
+    // Rows parsed outside a store, with file line numbers as ids
+    record Parsed(ExpenseColumns columns, int lineCount) { }
+
+    // Parse the lines in [from, to) of the file in one piece, numbering them
+    // after firstLine; for small appended regions, where splitting costs more
+    // than it saves
+    static Parsed parse(Path file, long from, long to, int firstLine) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChunkParser parser = new ChunkParser(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+            parser.invoke();
+            ExpenseColumns columns = parser.columns;
+            for (int row = 0; row < columns.size(); row++) columns.setId(row, firstLine + columns.getId(row));
+            parser.report(firstLine);
+            return new Parsed(columns, parser.lineCount);
+        }
+    }
+
+    // Chunk start offsets plus the file size, each start just past a newline
+    private static long[] chunkBounds(FileChannel channel, long offset, long size) throws IOException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long target = Math.max(MIN_CHUNK_BYTES, (size - offset) / (parallelism * 4L));
+        // Each chunk is mapped on its own, so it must stay below the 2GB mapping limit
+        target = Math.min(target, Integer.MAX_VALUE / 2);
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(offset);
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long pos = offset + target;
+        while (pos < size) {
+            long newline = -1;
+            long scan = pos;
+            while (newline < 0 && scan < size) {
+                probe.clear();
+                int n = channel.read(probe, scan);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = scan + i;
+                        break;
+                    }
+                }
+                scan += n;
+            }
+            if (newline < 0 || newline + 1 >= size) break;
+            bounds.add(newline + 1);
+            pos = newline + 1 + target;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    private static final class ChunkParser extends RecursiveAction {
+        private final ByteBuffer buf;
+        // Ids are chunk-local line numbers until the chunk is merged
+        private final ExpenseColumns columns;
+        private int lineCount;
+        private final List<Integer> errorLines = new ArrayList<>();
+        private final List<String> errorMessages = new ArrayList<>();
+        private final List<String> errorText = new ArrayList<>();
+
+        private final int[] fieldStart = new int[FIELDS];
+        private final int[] fieldEnd = new int[FIELDS];
+        private final DictionaryCache categories = new DictionaryCache(Expense.CATEGORY_DICTIONARY);
+        private final DictionaryCache paymentMethods = new DictionaryCache(Expense.PAYMENT_DICTIONARY);
+        private byte[] scratch = new byte[256];
+
+        ChunkParser(ByteBuffer buf) {
+            this.buf = buf;
+            // Rough guess of 40 bytes per row
+            this.columns = new ExpenseColumns(buf.limit() / 40 + 16);
+        }
+
+        @Override
+        protected void compute() {
+            int limit = buf.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buf.get(lineEnd) != '\n') lineEnd++;
+                lineCount++;
+                int end = lineEnd;
+                if (end > lineStart && buf.get(end - 1) == '\r') end--;
+                parseLine(lineStart, end);
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        private void parseLine(int start, int end) {
+            if (isBlank(start, end)) return;
+
+            // Same field layout as line.split(",", -1); fields past the sixth are ignored
+            int field = 0;
+            int pos = start;
+            fieldStart[0] = start;
+            while (pos < end && field < FIELDS) {
+                if (buf.get(pos) == ',') {
+                    fieldEnd[field] = pos;
+                    field++;
+                    if (field < FIELDS) fieldStart[field] = pos + 1;
+                }
+                pos++;
+            }
+            if (field < FIELDS) {
+                fieldEnd[field] = end;
+                field++;
+            }
+            if (field < FIELDS) {
+                error("Skipping malformed line ", start, end);
+                return;
+            }
+            for (int i = 0; i < FIELDS; i++) trim(i);
+
+            try {
+                int epochDay = parseDate(fieldStart[0], fieldEnd[0]);
+                long cents = parseCents(fieldStart[2], fieldEnd[2]);
+                short category = categories.idOf(buf, fieldStart[1], fieldEnd[1]);
+                short paymentMethod = paymentMethods.idOf(buf, fieldStart[4], fieldEnd[4]);
+                columns.descriptionColumn().add(buf, fieldStart[3], fieldEnd[3] - fieldStart[3]);
+                columns.tagColumn().add(buf, fieldStart[5], fieldEnd[5] - fieldStart[5]);
+                columns.addPrimitives(lineCount, epochDay, cents, category, paymentMethod);
+            } catch (RuntimeException ex) {
+                error("Skipping bad data at line ", start, end);
+            }
+        }
+
+        private boolean isBlank(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if ((buf.get(i) & 0xff) > ' ') return false;
+            }
+            return true;
+        }
+
+        // Same rule as String.trim(): strip bytes up to and including space
+        private void trim(int field) {
+            int s = fieldStart[field], e = fieldEnd[field];
+            while (s < e && (buf.get(s) & 0xff) <= ' ') s++;
+            while (e > s && (buf.get(e - 1) & 0xff) <= ' ') e--;
+            fieldStart[field] = s;
+            fieldEnd[field] = e;
+        }
+
+        // yyyy-MM-dd as an epoch day without going through a String or LocalDate;
+        // anything else takes the LocalDate.parse path. Throws for dates outside
+        // the range Expense supports.
+        private int parseDate(int s, int e) {
+            if (e - s == 10 && buf.get(s + 4) == '-' && buf.get(s + 7) == '-') {
+                int year = digits(s, 4), month = digits(s + 5, 2), day = digits(s + 8, 2);
+                if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month)) {
+                    return supported(epochDay(year, month, day));
+                }
+                if (year >= 0 && month >= 0 && day >= 0) throw new DateTimeException("Invalid date");
+            }
+            return supported(LocalDate.parse(decode(s, e)).toEpochDay());
+        }
+
+        private static int supported(long epochDay) {
+            if (!Expense.isSupportedDay(epochDay)) throw new DateTimeException("Date out of range");
+            return (int) epochDay;
+        }
+
+        private int digits(int s, int count) {
+            int value = 0;
+            for (int i = s; i < s + count; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) return -1;
+                value = value * 10 + d;
+            }
+            return value;
+        }
+
+        // [-+]digits[.digits] with at most two decimals is parsed as exact cents;
+        // anything else (exponents, more decimals) goes through Double.parseDouble
+        private long parseCents(int s, int e) {
+            int pos = s;
+            boolean negative = false;
+            if (pos < e && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                negative = buf.get(pos) == '-';
+                pos++;
+            }
+            long cents = 0;
+            int intDigits = 0, fracDigits = 0;
+            boolean fast = pos < e;
+            while (fast && pos < e && buf.get(pos) != '.') {
+                int d = buf.get(pos) - '0';
+                if (d < 0 || d > 9 || intDigits >= 15) fast = false;
+                else {
+                    cents = cents * 10 + d;
+                    intDigits++;
+                    pos++;
+                }
+            }
+            if (fast && pos < e) {
+                pos++;
+                while (fast && pos < e) {
+                    int d = buf.get(pos) - '0';
+                    if (d < 0 || d > 9 || fracDigits >= 2) fast = false;
+                    else {
+                        cents = cents * 10 + d;
+                        fracDigits++;
+                        pos++;
+                    }
+                }
+            }
+            if (!fast || intDigits + fracDigits == 0) {
+                double amount = Double.parseDouble(decode(s, e));
+                if (Double.isNaN(amount) || Double.isInfinite(amount)) throw new NumberFormatException("Not a finite amount");
+                return Math.round(amount * 100);
+            }
+            for (int i = fracDigits; i < 2; i++) cents *= 10;
+            return negative ? -cents : cents;
+        }
+
+        private String decode(int s, int e) {
+            int len = e - s;
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(s, scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        private void error(String message, int start, int end) {
+            errorLines.add(lineCount);
+            errorMessages.add(message);
+            errorText.add(decode(start, end));
+        }
+
+        void report(int firstLine) {
+            for (int i = 0; i < errorLines.size(); i++) {
+                System.err.println(errorMessages.get(i) + (firstLine + errorLines.get(i)) + ": " + errorText.get(i));
+            }
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2: return isLeapYear(year) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    // Days since 1970-01-01 for a valid proleptic Gregorian date
+    static int epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // Open-addressing cache from short byte sequences to dictionary ids, so
+    // repeated categories and payment methods never become Strings
+    private static final class DictionaryCache {
+        private static final int CAPACITY = 1024;
+        private static final int MAX_LENGTH = 64;
+        private final ValueDictionary dictionary;
+        private final byte[][] keys = new byte[CAPACITY][];
+        private final short[] ids = new short[CAPACITY];
+        private int size;
+
+        DictionaryCache(ValueDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        short idOf(ByteBuffer buf, int s, int e) {
+            int len = e - s;
+            int hash = 1;
+            for (int i = s; i < e; i++) hash = 31 * hash + buf.get(i);
+            int slot = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buf, s, len)) return ids[slot];
+                slot = (slot + 1) & (CAPACITY - 1);
+            }
+            byte[] key = new byte[len];
+            buf.get(s, key, 0, len);
+            short id = dictionary.idOf(new String(key, StandardCharsets.UTF_8));
+            if (len <= MAX_LENGTH && size < CAPACITY * 3 / 4) {
+                keys[slot] = key;
+                ids[slot] = id;
+                size++;
+            }
+            return id;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buf, int s, int len) {
+            if (key.length != len) return false;
+            for (int i = 0; i < len; i++) {
+                if (key[i] != buf.get(s + i)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.time.*;
+import java.time.format.*;
+
+// One ledger row: a lightweight view over a row of an ExpenseColumns.
+//
+// Rows are never modified in place (an edit appends a replacement row and
+// tombstones the old one), so a view keeps describing the same transaction
+// even after it is replaced or deleted. Expenses built with the public
+// constructor own a private single-row column set until added to a store.
+public final class Expense {
+
+    public static final String[] CATEGORIES = {
+        "Housing", "Food", "Transportation", "Utilities",
+        "Healthcare", "Entertainment", "Education", "Savings",
+        "Investments", "Debt", "Other"
+    };
+    public static final String[] PAYMENT_METHODS = {
+        "Cash", "Credit Card", "Debit Card", "Bank Transfer",
+        "Digital Wallet", "Cryptocurrency", "Other"
+    };
+    public static final ValueDictionary CATEGORY_DICTIONARY = new ValueDictionary("Other", CATEGORIES);
+    public static final ValueDictionary PAYMENT_DICTIONARY = new ValueDictionary("Other", PAYMENT_METHODS);
+
+    // Dates a row may carry. Rows outside are turned away where they come in
+    // (form, import, API, CSV and journal), so day arithmetic stays in int
+    // range and an outlier cannot stretch the per-day indexes.
+    public static final LocalDate MIN_DATE = LocalDate.of(1900, 1, 1);
+    public static final LocalDate MAX_DATE = LocalDate.of(9999, 12, 31);
+    public static final int MIN_EPOCH_DAY = (int) MIN_DATE.toEpochDay();
+    public static final int MAX_EPOCH_DAY = (int) MAX_DATE.toEpochDay();
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy");
+
+    private final ExpenseColumns columns;
+    private final int row;
+
+    public Expense(LocalDate date, String category, double amount,
+                   String description, String paymentMethod, String tags) {
+        this(date, category, Math.round(amount * 100), description, paymentMethod, tags);
+    }
+
+    public Expense(LocalDate date, String category, long amountCents,
+                   String description, String paymentMethod, String tags) {
+        if (!isSupportedDate(date)) {
+            throw new IllegalArgumentException("Date " + date + " is outside " + MIN_DATE + " to " + MAX_DATE);
+        }
+        this.columns = new ExpenseColumns(1);
+        this.row = columns.add(0, (int) date.toEpochDay(), amountCents,
+            CATEGORY_DICTIONARY.idOf(category), PAYMENT_DICTIONARY.idOf(paymentMethod),
+            description, tags);
+    }
+
+    public static boolean isSupportedDate(LocalDate date) {
+        return isSupportedDay(date.toEpochDay());
+    }
+
+    public static boolean isSupportedDay(long epochDay) {
+        return epochDay >= MIN_EPOCH_DAY && epochDay <= MAX_EPOCH_DAY;
+    }
+
+    Expense(ExpenseColumns columns, int row) {
+        this.columns = columns;
+        this.row = row;
+    }
+
+    ExpenseColumns getColumns() { return columns; }
+    int getRow() { return row; }
+
+    // Stable transaction id, assigned by the Ledger
+    public long getId() { return columns.getId(row); }
+    void setId(long id) { columns.setId(row, id); }
+    public int getEpochDay() { return columns.getEpochDay(row); }
+    public LocalDate getDate() { return LocalDate.ofEpochDay(columns.getEpochDay(row)); }
+    public short getCategoryId() { return columns.getCategoryId(row); }
+    public String getCategory() { return CATEGORY_DICTIONARY.valueOf(columns.getCategoryId(row)); }
+    public long getAmountCents() { return columns.getCents(row); }
+    public double getAmount() { return columns.getCents(row) / 100.0; }
+    public String getDescription() { return columns.getDescription(row); }
+    public short getPaymentMethodId() { return columns.getPaymentMethodId(row); }
+    public String getPaymentMethod() { return PAYMENT_DICTIONARY.valueOf(columns.getPaymentMethodId(row)); }
+    public String getTags() { return columns.getTags(row); }
+    public String getFormattedDate() { return getDate().format(DATE_FORMATTER); }
+    public String getFormattedAmount() { return Money.append(new StringBuilder(16).append('$'), getAmountCents()).toString(); }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Expense && ((Expense) o).columns == columns && ((Expense) o).row == row;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(columns) * 31 + row;
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+// Column-oriented storage for ledger rows: primitive arrays for ids, dates
+// (epoch days) and amounts (cents), dictionary ids for category and payment
+// method, and byte-heap string columns for description and tags.
+public final class ExpenseColumns {
+
+    private long[] ids;
+    private int[] epochDays;
+    private long[] cents;
+    private short[] categories;
+    private short[] paymentMethods;
+    private final StringColumn descriptions;
+    private final StringColumn tags;
+    private int size;
+
+    public ExpenseColumns() {
+        this(16);
+    }
+
+    public ExpenseColumns(int capacity) {
+        capacity = Math.max(1, capacity);
+        ids = new long[capacity];
+        epochDays = new int[capacity];
+        cents = new long[capacity];
+        categories = new short[capacity];
+        paymentMethods = new short[capacity];
+        descriptions = new StringColumn(capacity);
+        tags = new StringColumn(capacity);
+    }
+
+    private ExpenseColumns(ExpenseColumns source) {
+        ids = source.ids;
+        epochDays = source.epochDays;
+        cents = source.cents;
+        categories = source.categories;
+        paymentMethods = source.paymentMethods;
+        descriptions = source.descriptions.snapshot();
+        tags = source.tags.snapshot();
+        size = source.size;
+    }
+
+    // Columns read back from a ledger snapshot; the arrays are taken over, not copied
+    ExpenseColumns(long[] ids, int[] epochDays, long[] cents, short[] categories, short[] paymentMethods,
+                   StringColumn descriptions, StringColumn tags) {
+        this.ids = ids;
+        this.epochDays = epochDays;
+        this.cents = cents;
+        this.categories = categories;
+        this.paymentMethods = paymentMethods;
+        this.descriptions = descriptions;
+        this.tags = tags;
+        this.size = ids.length;
+    }
+
+    public int size() { return size; }
+
+    public int add(long id, int epochDay, long amountCents, short category, short paymentMethod,
+                   String description, String tag) {
+        int row = grow();
+        descriptions.add(description);
+        tags.add(tag);
+        return set(row, id, epochDay, amountCents, category, paymentMethod);
+    }
+
+    // Used by the CSV loader, which hands over description and tag bytes straight from the file
+    int addPrimitives(long id, int epochDay, long amountCents, short category, short paymentMethod) {
+        return set(grow(), id, epochDay, amountCents, category, paymentMethod);
+    }
+
+    StringColumn descriptionColumn() { return descriptions; }
+    StringColumn tagColumn() { return tags; }
+
+    // Copy one row of another column set, keeping its strings encoded
+    public int add(ExpenseColumns src, int row, long id) {
+        int target = grow();
+        descriptions.add(src.descriptions, row);
+        tags.add(src.tags, row);
+        return set(target, id, src.epochDays[row], src.cents[row], src.categories[row], src.paymentMethods[row]);
+    }
+
+    private int grow() {
+        if (size == ids.length) {
+            int capacity = Math.max(16, ids.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            paymentMethods = Arrays.copyOf(paymentMethods, capacity);
+        }
+        return size;
+    }
+
+    private int set(int row, long id, int epochDay, long amountCents, short category, short paymentMethod) {
+        ids[row] = id;
+        epochDays[row] = epochDay;
+        cents[row] = amountCents;
+        categories[row] = category;
+        paymentMethods[row] = paymentMethod;
+        size = row + 1;
+        return row;
+    }
+
+    public long getId(int row) { return ids[row]; }
+    void setId(int row, long id) { ids[row] = id; }
+
+    // Give the rows, in order, the ids 1, 2, ... in a new id array, so copies
+    // made by snapshot() keep the ids they had
+    void renumber(int[] rows) {
+        long[] renumbered = ids.clone();
+        long id = 0;
+        for (int row : rows) renumbered[row] = ++id;
+        ids = renumbered;
+    }
+    public int getEpochDay(int row) { return epochDays[row]; }
+    public long getCents(int row) { return cents[row]; }
+    public short getCategoryId(int row) { return categories[row]; }
+    public short getPaymentMethodId(int row) { return paymentMethods[row]; }
+    public String getDescription(int row) { return descriptions.get(row); }
+    public String getTags(int row) { return tags.get(row); }
+
+    public static int compareDescriptions(ExpenseColumns a, int rowA, ExpenseColumns b, int rowB) {
+        return StringColumn.compare(a.descriptions, rowA, b.descriptions, rowB);
+    }
+
+    public static int compareTags(ExpenseColumns a, int rowA, ExpenseColumns b, int rowB) {
+        return StringColumn.compare(a.tags, rowA, b.tags, rowB);
+    }
+
+    // A read-only view of the rows present now, safe to scan while rows are appended
+    public ExpenseColumns snapshot() {
+        return new ExpenseColumns(this);
+    }
+}
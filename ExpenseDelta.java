@@ -0,0 +1,33 @@
+// A single change to the ledger: an expense was added, removed or replaced.
+public final class ExpenseDelta {
+
+    public enum Kind { ADDED, REMOVED, REPLACED }
+
+    private final Kind kind;
+    private final Expense oldValue;
+    private final Expense newValue;
+
+    private ExpenseDelta(Kind kind, Expense oldValue, Expense newValue) {
+        this.kind = kind;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public static ExpenseDelta added(Expense expense) {
+        return new ExpenseDelta(Kind.ADDED, null, expense);
+    }
+
+    public static ExpenseDelta removed(Expense expense) {
+        return new ExpenseDelta(Kind.REMOVED, expense, null);
+    }
+
+    public static ExpenseDelta replaced(Expense oldValue, Expense newValue) {
+        return new ExpenseDelta(Kind.REPLACED, oldValue, newValue);
+    }
+
+    public Kind getKind() { return kind; }
+    // Null for ADDED
+    public Expense getOldValue() { return oldValue; }
+    // Null for REMOVED
+    public Expense getNewValue() { return newValue; }
+}
@@ -0,0 +1,48 @@
+import java.util.*;
+
+// Columns of the transaction tables, also the sort keys of the HTTP API.
+// Cells render straight from the row's columns and sorting compares the raw
+// epoch days and cents.
+public enum ExpenseField {
+    DATE("Date", (c, a, b) -> Integer.compare(c.getEpochDay(a), c.getEpochDay(b))),
+    CATEGORY("Category", (c, a, b) -> Expense.CATEGORY_DICTIONARY.valueOf(c.getCategoryId(a))
+        .compareTo(Expense.CATEGORY_DICTIONARY.valueOf(c.getCategoryId(b)))),
+    AMOUNT("Amount", (c, a, b) -> Long.compare(c.getCents(a), c.getCents(b))),
+    DESCRIPTION("Description", (c, a, b) -> ExpenseColumns.compareDescriptions(c, a, c, b)),
+    PAYMENT("Payment", (c, a, b) -> Expense.PAYMENT_DICTIONARY.valueOf(c.getPaymentMethodId(a))
+        .compareTo(Expense.PAYMENT_DICTIONARY.valueOf(c.getPaymentMethodId(b)))),
+    TAGS("Tags", (c, a, b) -> ExpenseColumns.compareTags(c, a, c, b)),
+    TYPE("Type", (c, a, b) -> Boolean.compare(c.getCents(a) >= 0, c.getCents(b) >= 0));
+
+    final String title;
+    final RowIndexList.RowComparator comparator;
+
+    ExpenseField(String title, RowIndexList.RowComparator comparator) {
+        this.title = title;
+        this.comparator = comparator;
+    }
+
+    public record SortKey(ExpenseField field, boolean descending) { }
+
+    // A sort order over fields: compares as their comparators chained, and
+    // lists its keys so a database backend can sort the same way
+    public record Order(List<SortKey> keys) implements RowIndexList.RowComparator {
+        public Order {
+            keys = List.copyOf(keys);
+        }
+
+        @Override
+        public int compare(ExpenseColumns columns, int rowA, int rowB) {
+            for (SortKey key : keys) {
+                int c = key.field().comparator.compare(columns, rowA, rowB);
+                if (c != 0) return key.descending() ? Integer.compare(0, c) : c;
+            }
+            return 0;
+        }
+    }
+
+    // The order of the keys, or null (store order) if there are none
+    public static Order order(List<SortKey> keys) {
+        return keys.isEmpty() ? null : new Order(keys);
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Append-only log of ledger mutations kept next to the base CSV file.
+//
+// Each record is one line: "I,<id>,<row>" for inserts, "U,<id>,<row>" for
+// updates and "D,<id>" for deletes, where <row> uses the base CSV layout.
+// A line "B,<count>" opens a batch of the count records after it, closed by
+// a line "E,<count>"; replay applies a batch all together or, if a record or
+// the end line is missing or torn, not at all, and cuts it off the file.
+// Rows of the base file are identified by their line number; rows created
+// through the journal get ids from FIRST_JOURNAL_ID upwards so they can never
+// collide with lines appended to the base file by other tools.
+//
+// Records are written by a JournalWriter on its own thread. Each log method
+// queues its records and returns the commit to wait on, so the caller can
+// release its locks before waiting and concurrent changes share one write.
+public class ExpenseJournal implements Closeable {
+
+    public static final long FIRST_JOURNAL_ID = 1L << 32;
+
+    // Records of a bulk insert queued as one write, in characters
+    private static final int CHUNK_CHARS = 1 << 16;
+
+    private final Path file;
+    private JournalWriter writer;
+    private long nextId = FIRST_JOURNAL_ID;
+    private int recordCount;
+
+    public ExpenseJournal(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() { return file; }
+
+    // Records written since the journal was opened or last folded into the base file
+    public int getRecordCount() { return recordCount; }
+
+    public long nextId() {
+        return nextId++;
+    }
+
+    // Apply every record to the freshly loaded base rows of the store and open
+    // the journal for appending. Whatever follows the last complete record or
+    // batch (a torn line or a batch cut short by a crash) is cut off first, so
+    // the records appended next start on a line of their own.
+    public void replay(ExpenseStore store) throws IOException {
+        // Anything still queued is written first
+        close();
+        recordCount = 0;
+        int baseRows = store.rowCount();
+        Map<Long, Integer> journalRows = new HashMap<>();
+        if (Files.exists(file)) {
+            // Byte offset just past the last record or batch applied
+            long validEnd = 0;
+            try (LineReader reader = new LineReader(Files.newInputStream(file))) {
+                String line;
+                int lineNum = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNum++;
+                    if (!reader.terminated()) {
+                        System.err.println("Dropping torn journal record at line " + lineNum);
+                        break;
+                    }
+                    if (line.trim().isEmpty()) {
+                        validEnd = reader.offset();
+                        continue;
+                    }
+                    if (line.startsWith("B,")) {
+                        int batchLine = lineNum;
+                        List<String> batch = new ArrayList<>();
+                        boolean complete;
+                        try {
+                            int count = Integer.parseInt(line.substring(2).trim());
+                            while (batch.size() < count && (line = reader.readLine()) != null && reader.terminated()) {
+                                lineNum++;
+                                batch.add(line);
+                            }
+                            complete = batch.size() == count && batch.stream().allMatch(ExpenseJournal::isValidRecord);
+                            if (complete) {
+                                // Without its end line, records written later could complete it
+                                line = reader.readLine();
+                                complete = line != null && reader.terminated() && line.trim().equals("E," + count);
+                                if (complete) lineNum++;
+                            }
+                        } catch (RuntimeException ex) {
+                            complete = false;
+                        }
+                        if (!complete) {
+                            // Typically cut short by a crash while it was written
+                            System.err.println("Skipping incomplete journal batch at line " + batchLine);
+                            continue;
+                        }
+                        for (String record : batch) applyRecord(record, store, baseRows, journalRows);
+                        recordCount += batch.size();
+                        validEnd = reader.offset();
+                        continue;
+                    }
+                    try {
+                        applyRecord(line, store, baseRows, journalRows);
+                        recordCount++;
+                        validEnd = reader.offset();
+                    } catch (RuntimeException ex) {
+                        System.err.println("Skipping bad journal record at line " + lineNum + ": " + line);
+                    }
+                }
+            }
+            if (validEnd < Files.size(file)) {
+                System.err.println("Truncating " + file + " to its last complete record at byte " + validEnd);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(validEnd);
+                    channel.force(true);
+                }
+            }
+        }
+        openWriter();
+    }
+
+    // Lines of a UTF-8 file with the byte offset just past each, telling
+    // whether the line read last ended with a newline
+    private static final class LineReader implements Closeable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int pos, limit;
+        private long offset;
+        private boolean terminated;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Null at the end of the file
+        String readLine() throws IOException {
+            line.reset();
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buffer);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        terminated = false;
+                        return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+                    }
+                }
+                int start = pos;
+                while (pos < limit && buffer[pos] != '\n') pos++;
+                line.write(buffer, start, pos - start);
+                offset += pos - start;
+                if (pos < limit) {
+                    pos++;
+                    offset++;
+                    terminated = true;
+                    return line.toString(StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        boolean terminated() { return terminated; }
+
+        long offset() { return offset; }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private void applyRecord(String line, ExpenseStore store, int baseRows, Map<Long, Integer> journalRows) {
+        String[] head = line.split(",", 3);
+        long id = Long.parseLong(head[1].trim());
+        if (id >= nextId) nextId = id + 1;
+        switch (head[0]) {
+            case "I":
+            case "U": {
+                Expense expense = Ledger.parseRow(head[2]);
+                if (expense == null) throw new IllegalArgumentException("malformed row");
+                // Updates tombstone the old row and append, as ExpenseStore.replace does
+                int existing = findRow(store, baseRows, journalRows, id);
+                if (existing >= 0) store.killRow(existing);
+                journalRows.put(id, store.appendRow(expense, id));
+                break;
+            }
+            case "D": {
+                int existing = findRow(store, baseRows, journalRows, id);
+                if (existing >= 0) store.killRow(existing);
+                journalRows.remove(id);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown record type " + head[0]);
+        }
+    }
+
+    private static boolean isValidRecord(String line) {
+        String[] head = line.split(",", 3);
+        if (head.length < 2) return false;
+        try {
+            Long.parseLong(head[1].trim());
+            switch (head[0]) {
+                case "I":
+                case "U":
+                    return head.length == 3 && Ledger.parseRow(head[2]) != null;
+                case "D":
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    // Live row with the given id, or -1
+    private static int findRow(ExpenseStore store, int baseRows, Map<Long, Integer> journalRows, long id) {
+        Integer journalRow = journalRows.get(id);
+        if (journalRow != null) return journalRow;
+        // Base rows are in file order, so their line-number ids are ascending
+        ExpenseColumns columns = store.getColumns();
+        int lo = 0, hi = baseRows - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = columns.getId(mid);
+            if (midId < id) lo = mid + 1;
+            else if (midId > id) hi = mid - 1;
+            else return store.isLive(mid) ? mid : -1;
+        }
+        return -1;
+    }
+
+    public JournalWriter.Commit logInsert(Expense expense, long id) throws IOException {
+        return append(record("I,", id, expense));
+    }
+
+    public JournalWriter.Commit logUpdate(Expense expense, long id) throws IOException {
+        return append(record("U,", id, expense));
+    }
+
+    private static String record(String kind, long id, Expense expense) {
+        StringBuilder record = new StringBuilder(96).append(kind).append(id).append(',');
+        return Ledger.appendRow(record, expense.getColumns(), expense.getRow()).toString();
+    }
+
+    public JournalWriter.Commit logDelete(long id) throws IOException {
+        return append("D," + id + "\n");
+    }
+
+    // Inserts of many rows, queued in a few large writes; the commit returned
+    // is the last, so it is done once they all are
+    public JournalWriter.Commit logInserts(ExpenseColumns rows, long[] ids) throws IOException {
+        if (writer == null) openWriter();
+        StringBuilder records = new StringBuilder(Math.min(CHUNK_CHARS, rows.size() * 80) + 128);
+        JournalWriter.Commit commit = JournalWriter.Commit.DONE;
+        for (int row = 0; row < rows.size(); row++) {
+            records.append("I,").append(ids[row]).append(',');
+            Ledger.appendRow(records, rows, row);
+            if (records.length() >= CHUNK_CHARS) {
+                commit = writer.submit(records.toString());
+                records.setLength(0);
+            }
+        }
+        if (records.length() > 0) commit = writer.submit(records.toString());
+        recordCount += rows.size();
+        return commit;
+    }
+
+    // Updates (rows of updates, under updateIds) and deletes as one batch
+    public JournalWriter.Commit logBatch(ExpenseColumns updates, long[] updateIds, long[] deleteIds) throws IOException {
+        if (writer == null) openWriter();
+        int count = updates.size() + deleteIds.length;
+        if (count == 0) return JournalWriter.Commit.DONE;
+        StringBuilder records = new StringBuilder(Math.min(CHUNK_CHARS, count * 80) + 128);
+        JournalWriter.Commit commit = JournalWriter.Commit.DONE;
+        records.append("B,").append(count).append('\n');
+        for (int row = 0; row < updates.size(); row++) {
+            records.append("U,").append(updateIds[row]).append(',');
+            Ledger.appendRow(records, updates, row);
+            if (records.length() >= CHUNK_CHARS) {
+                // Replay drops the batch if a crash leaves only part of it
+                commit = writer.submit(records.toString());
+                records.setLength(0);
+            }
+        }
+        for (long id : deleteIds) {
+            records.append("D,").append(id).append('\n');
+            if (records.length() >= CHUNK_CHARS) {
+                commit = writer.submit(records.toString());
+                records.setLength(0);
+            }
+        }
+        records.append("E,").append(count).append('\n');
+        commit = writer.submit(records.toString());
+        recordCount += count;
+        return commit;
+    }
+
+    private JournalWriter.Commit append(String record) throws IOException {
+        if (writer == null) openWriter();
+        JournalWriter.Commit commit = writer.submit(record);
+        recordCount++;
+        return commit;
+    }
+
+    private void openWriter() throws IOException {
+        writer = new JournalWriter(file, JournalWriter.getDefaultPolicy());
+    }
+
+    // Commits queued and not yet taken by the writer
+    public int queueDepth() {
+        return writer == null ? 0 : writer.queueDepth();
+    }
+
+    // Move the journal aside once its records are folded into a new base file
+    public void retire(Path target) throws IOException {
+        close();
+        if (Files.exists(file)) {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        recordCount = 0;
+        nextId = FIRST_JOURNAL_ID;
+        openWriter();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+// Where the user accounts and each user's transactions are kept.
+//
+// CsvExpenseRepository keeps them in the CSV files Budgify has always used,
+// with each partition loaded into memory (see Ledger). JdbcExpenseRepository
+// keeps them in an embedded SQL database and answers queries there, so only
+// the rows a view shows are read into the heap.
+public interface ExpenseRepository extends Closeable {
+
+    Map<String, User> loadUsers() throws IOException;
+
+    void saveUser(User user) throws IOException;
+
+    // The user's transactions, loading them first if the backend needs to,
+    // with progress reported as rows arrive
+    Partition open(User user, Ledger.LoadProgress progress) throws IOException;
+
+    // One user's transactions. Mutations take rows handed out by query() (or
+    // the store) and detached rows for new values.
+    interface Partition {
+
+        // The in-memory store holding the rows, whose listeners hear about
+        // single-row changes; null when the rows stay in a database, in which
+        // case callers query again after a change
+        ExpenseStore getStore();
+
+        Expense add(Expense expense) throws IOException;
+
+        void remove(Expense expense) throws IOException;
+
+        Expense replace(Expense oldValue, Expense newValue) throws IOException;
+
+        // Batches: applied together or not at all, without notifying store listeners
+        void addAll(ExpenseColumns rows) throws IOException;
+
+        int replaceAll(List<Expense> oldValues, ExpenseColumns newValues) throws IOException;
+
+        int removeAll(List<Expense> expenses) throws IOException;
+
+        // Give every row matching the filter the category, as one batch, even
+        // rows a page left out; returns the rows changed
+        int setCategory(Filter filter, String category) throws IOException;
+
+        // Rows matching the filter, sorted in the given order (null for
+        // storage order), with their totals. Runs off the JavaFX thread and
+        // gives up with a CancellationException once cancelled turns true.
+        Page query(Filter filter, RowIndexList.RowComparator order, BooleanSupplier cancelled) throws IOException;
+
+        // Every row, as a store snapshot; for duplicate checks when importing
+        ExpenseStore.Snapshot snapshot() throws IOException;
+    }
+
+    // What a view shows: rows containing the search text in their description,
+    // category or tags, or else rows of the category (null for any) dated from
+    // .. to inclusive (null for open-ended)
+    record Filter(String search, String category, LocalDate from, LocalDate to) {
+        public static final Filter ALL = new Filter(null, null, null, null);
+
+        public static Filter search(String text) {
+            return new Filter(text.toLowerCase(Locale.ROOT), null, null, null);
+        }
+
+        public boolean isSearch() { return search != null && !search.isEmpty(); }
+
+        public boolean isAll() { return !isSearch() && category == null && from == null && to == null; }
+
+        public int fromDay() { return isSearch() || from == null ? Integer.MIN_VALUE : (int) from.toEpochDay(); }
+
+        public int toDay() { return isSearch() || to == null ? Integer.MAX_VALUE : (int) to.toEpochDay(); }
+
+        // Whether one row belongs to the view, as query() would decide; for
+        // applying single edits to the rows shown without querying again
+        public boolean matches(Expense e) {
+            if (isSearch()) return SearchIndex.matches(e, search);
+            int day = e.getEpochDay();
+            return (category == null || e.getCategory().equals(category)) && day >= fromDay() && day <= toDay();
+        }
+    }
+
+    // The rows of the columns matching a filter, and totals: of the matching
+    // rows (all of them, even when only the first are returned), and of the
+    // whole partition. Opening and closing are the partition's balance, in
+    // cents, the day before and the last day of the filter's date range.
+    record Page(ExpenseColumns columns, int[] rows, int matchedRows, ViewTotals totals,
+                int partitionRows, ViewTotals partitionTotals, long opening, long closing) {
+        public static Page empty() {
+            return new Page(new ExpenseColumns(1), new int[0], 0, new ViewTotals(), 0, new ViewTotals(), 0, 0);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.*;
+import java.util.stream.*;
+
+// In-memory source of truth for the ledger, stored column-wise in an
+// ExpenseColumns. Rows are append-only: a delete sets a tombstone and a
+// replace tombstones the old row and appends the new one, so row indices
+// (and the Expense views over them) stay valid. Every mutation is announced
+// to listeners as an ExpenseDelta so views can update incrementally.
+public class ExpenseStore implements Iterable<Expense> {
+
+    public interface Listener {
+        void onChange(ExpenseDelta delta);
+    }
+
+    private ExpenseColumns columns = new ExpenseColumns(1024);
+    private BitSet deleted = new BitSet();
+    private int deletedCount;
+    // Totals of the live rows; copied before the next change once a snapshot shares it
+    private AggregateCube cube = new AggregateCube();
+    private boolean cubeShared;
+    // Daily net amounts of the live rows, for balances as of a date
+    private final BalanceIndex balances = new BalanceIndex();
+    // Bumped by every change, so equal versions mean equal contents
+    private long version;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Drop every row; listeners are not notified, callers refresh their views once
+    public synchronized void clear() {
+        columns = new ExpenseColumns(1024);
+        deleted = new BitSet();
+        deletedCount = 0;
+        cube = new AggregateCube();
+        cubeShared = false;
+        balances.clear();
+        version++;
+    }
+
+    // Bulk load of loader output with its ids offset by idBase; no notification.
+    // Into an empty store the chunk itself becomes the columns, without a copy.
+    synchronized void appendAll(ExpenseColumns chunk, long idBase) {
+        version++;
+        AggregateCube cube = writableCube();
+        boolean adopt = columns.size() == 0 && idBase == 0;
+        if (adopt) columns = chunk;
+        for (int row = 0; row < chunk.size(); row++) {
+            if (!adopt) columns.add(chunk, row, idBase + chunk.getId(row));
+            cube.add(chunk.getEpochDay(row), chunk.getCategoryId(row), chunk.getPaymentMethodId(row), chunk.getCents(row), 1);
+            balances.add(chunk.getEpochDay(row), chunk.getCents(row));
+        }
+    }
+
+    // Single row during load or journal replay; no notification
+    synchronized int appendRow(Expense expense, long id) {
+        int row = columns.add(expense.getColumns(), expense.getRow(), id);
+        count(row, 1);
+        return row;
+    }
+
+    synchronized void killRow(int row) {
+        if (!deleted.get(row)) {
+            deleted.set(row);
+            deletedCount++;
+            count(row, -1);
+        }
+    }
+
+    private void count(int row, int direction) {
+        version++;
+        writableCube().add(columns.getEpochDay(row), columns.getCategoryId(row), columns.getPaymentMethodId(row),
+            columns.getCents(row), direction);
+        balances.add(columns.getEpochDay(row), direction * columns.getCents(row));
+    }
+
+    private AggregateCube writableCube() {
+        if (cubeShared) {
+            cube = cube.copy();
+            cubeShared = false;
+        }
+        return cube;
+    }
+
+    // Copies the (usually detached) expense into the store and returns the stored view
+    public Expense add(Expense expense, long id) {
+        Expense stored;
+        synchronized (this) {
+            stored = new Expense(columns, appendRow(expense, id));
+        }
+        fire(ExpenseDelta.added(stored));
+        return stored;
+    }
+
+    public boolean remove(Expense expense) {
+        synchronized (this) {
+            if (!contains(expense)) return false;
+            killRow(expense.getRow());
+        }
+        fire(ExpenseDelta.removed(expense));
+        return true;
+    }
+
+    // The replacement is appended, taking the end of the order as a re-saved row does in the file
+    public Expense replace(Expense oldValue, Expense newValue) {
+        Expense stored;
+        synchronized (this) {
+            if (!contains(oldValue)) return null;
+            killRow(oldValue.getRow());
+            stored = new Expense(columns, appendRow(newValue, oldValue.getId()));
+        }
+        fire(ExpenseDelta.replaced(oldValue, stored));
+        return stored;
+    }
+
+    public synchronized boolean contains(Expense expense) {
+        return expense.getColumns() == columns && !deleted.get(expense.getRow());
+    }
+
+    public synchronized boolean isLive(int row) {
+        return row < columns.size() && !deleted.get(row);
+    }
+
+    // Live rows
+    public synchronized int size() {
+        return columns.size() - deletedCount;
+    }
+
+    // Live and tombstoned rows; the exclusive upper bound of row indices
+    public synchronized int rowCount() {
+        return columns.size();
+    }
+
+    // Net of every live row dated on or before the day, in cents
+    public synchronized long balanceAsOf(int epochDay) {
+        return balances.balanceAsOf(epochDay);
+    }
+
+    // Net of the live rows dated fromDay..toDay inclusive, in cents
+    public synchronized long netFlow(int fromDay, int toDay) {
+        return balances.netFlow(fromDay, toDay);
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    // Rows are now identified by their line in a rewritten base file; snapshots
+    // taken before keep their ids
+    synchronized void renumber(int[] rows) {
+        columns.renumber(rows);
+        version++;
+    }
+
+    public synchronized ExpenseColumns getColumns() {
+        return columns;
+    }
+
+    // Consistent read-only copy of the store for background queries
+    public synchronized Snapshot snapshot() {
+        cubeShared = true;
+        return new Snapshot(columns, columns.snapshot(), (BitSet) deleted.clone(), cube);
+    }
+
+    public synchronized Expense view(int row) {
+        return new Expense(columns, row);
+    }
+
+    // Indices of all live rows, in order
+    public synchronized int[] liveRows() {
+        int[] rows = new int[size()];
+        int n = 0;
+        for (int row = deleted.nextClearBit(0); row < columns.size(); row = deleted.nextClearBit(row + 1)) {
+            rows[n++] = row;
+        }
+        return rows;
+    }
+
+    public Stream<Expense> stream() {
+        ExpenseColumns snapshot;
+        int[] rows;
+        synchronized (this) {
+            snapshot = columns;
+            rows = liveRows();
+        }
+        return Arrays.stream(rows).mapToObj(row -> new Expense(snapshot, row));
+    }
+
+    @Override
+    public Iterator<Expense> iterator() {
+        return stream().iterator();
+    }
+
+    // Reads go to column arrays that later appends never touch, so a snapshot can
+    // be scanned on any thread. The views it hands out point at the live store,
+    // so they compare equal to the rows shown in the UI.
+    public static final class Snapshot {
+        private final ExpenseColumns owner;
+        private final ExpenseColumns columns;
+        private final BitSet deleted;
+        private final AggregateCube cube;
+
+        private Snapshot(ExpenseColumns owner, ExpenseColumns columns, BitSet deleted, AggregateCube cube) {
+            this.owner = owner;
+            this.columns = columns;
+            this.deleted = deleted;
+            this.cube = cube;
+        }
+
+        public ExpenseColumns getColumns() { return columns; }
+        public AggregateCube getCube() { return cube; }
+        // Identifies the store generation; changes when the store is cleared
+        ExpenseColumns getOwner() { return owner; }
+        public int rowCount() { return columns.size(); }
+        public boolean isLive(int row) { return row < columns.size() && !deleted.get(row); }
+        public Expense view(int row) { return new Expense(owner, row); }
+
+        public int[] liveRows() {
+            IntList rows = new IntList(columns.size());
+            for (int row = deleted.nextClearBit(0); row < columns.size(); row = deleted.nextClearBit(row + 1)) {
+                rows.add(row);
+            }
+            return rows.toArray();
+        }
+    }
+
+    private void fire(ExpenseDelta delta) {
+        for (Listener listener : listeners) {
+            listener.onChange(delta);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.*;
+
+// Secondary indexes for the category and date range filters: rows by epoch
+// day in a sorted map, and a row bitmap per category dictionary id.
+//
+// Rows are append-only and never change, so like SearchIndex the indexes
+// catch up with new rows on the next query; an edit is just a new row (with
+// whatever date, back-dated or not) plus a tombstone, and tombstoned rows are
+// dropped by checking the snapshot. A query walks whichever side is smaller:
+// the days in range, or the rows of the category.
+public class FilterIndex {
+
+    public static final int ANY_CATEGORY = -1;
+
+    private final TreeMap<Integer, IntList> rowsByDay = new TreeMap<>();
+    // Indexed by category id, grown as higher ids turn up
+    private BitSet[] categoryRows = new BitSet[16];
+    private int[] categoryCounts = new int[16];
+    // Store generation the index was built for
+    private ExpenseColumns indexedColumns;
+    private int indexedRows;
+
+    // Live rows of the snapshot in the category (or ANY_CATEGORY) dated
+    // fromDay..toDay inclusive, in store order
+    public synchronized int[] rows(ExpenseStore.Snapshot snapshot, int categoryId, int fromDay, int toDay) {
+        boolean anyDay = fromDay == Integer.MIN_VALUE && toDay == Integer.MAX_VALUE;
+        if (categoryId == ANY_CATEGORY && anyDay) return snapshot.liveRows();
+        if (fromDay > toDay) return new int[0];
+        catchUp(snapshot);
+
+        ExpenseColumns columns = snapshot.getColumns();
+        BitSet category = categoryId == ANY_CATEGORY || categoryId >= categoryRows.length ? null : categoryRows[categoryId];
+        if (categoryId != ANY_CATEGORY && category == null) return new int[0];
+        SortedMap<Integer, IntList> days = anyDay ? rowsByDay : rowsByDay.subMap(fromDay, true, toDay, true);
+
+        IntList result = new IntList();
+        if (category != null && (anyDay || categoryCounts[categoryId] < countRows(days, categoryCounts[categoryId]))) {
+            for (int row = category.nextSetBit(0); row >= 0; row = category.nextSetBit(row + 1)) {
+                int day = columns.getEpochDay(row);
+                if (day >= fromDay && day <= toDay && snapshot.isLive(row)) result.add(row);
+            }
+            return result.toArray();
+        }
+        for (IntList dayRows : days.values()) {
+            for (int i = 0; i < dayRows.size(); i++) {
+                int row = dayRows.get(i);
+                if ((category == null || category.get(row)) && snapshot.isLive(row)) result.add(row);
+            }
+        }
+        int[] rows = result.toArray();
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    // Rows indexed for the days, counting no further than limit
+    private static int countRows(SortedMap<Integer, IntList> days, int limit) {
+        int count = 0;
+        for (IntList dayRows : days.values()) {
+            count += dayRows.size();
+            if (count > limit) break;
+        }
+        return count;
+    }
+
+    // Index rows appended since the last query; start over if the store was reloaded
+    private void catchUp(ExpenseStore.Snapshot snapshot) {
+        if (snapshot.getOwner() != indexedColumns) {
+            rowsByDay.clear();
+            Arrays.fill(categoryRows, null);
+            Arrays.fill(categoryCounts, 0);
+            indexedColumns = snapshot.getOwner();
+            indexedRows = 0;
+        }
+        ExpenseColumns columns = snapshot.getColumns();
+        for (int row = indexedRows; row < snapshot.rowCount(); row++) {
+            rowsByDay.computeIfAbsent(columns.getEpochDay(row), k -> new IntList(4)).add(row);
+            int category = columns.getCategoryId(row) & 0xffff;
+            if (category >= categoryRows.length) {
+                int length = Math.max(category + 1, categoryRows.length * 2);
+                categoryRows = Arrays.copyOf(categoryRows, length);
+                categoryCounts = Arrays.copyOf(categoryCounts, length);
+            }
+            if (categoryRows[category] == null) categoryRows[category] = new BitSet();
+            categoryRows[category].set(row);
+            categoryCounts[category]++;
+        }
+        indexedRows = Math.max(indexedRows, snapshot.rowCount());
+    }
+}
@@ -0,0 +1,576 @@
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+// Accounts and transactions in an embedded SQL database, opened through
+// JDBC from a URL such as "jdbc:h2:./budgify" or "jdbc:sqlite:budgify.db".
+// The build ships the H2 driver; SQLite works too with its driver on the
+// class path.
+//
+// Every user's rows share one table, keyed by owner and indexed on owner
+// with date, category and payment method. Filters and totals run as
+// queries, so the heap holds at most MAX_PAGE_ROWS rows of a view; totals
+// always cover every matching row. The schema uses only types and syntax
+// both databases accept. Requests run side by side, each on a connection
+// borrowed from a small pool.
+//
+// On first use an empty database takes over the accounts of the CSV
+// repository, and each partition, the first time it is opened, the contents
+// of its CSV ledger. A partition emptied later stays empty.
+public class JdbcExpenseRepository implements ExpenseRepository {
+
+    // Most rows of a view read into memory; the table shows the first ones
+    static final int MAX_PAGE_ROWS = 200_000;
+    // Owner of the ledger all admins share, as the CSV repository's expenses.csv
+    private static final String SHARED_OWNER = "";
+    private static final int CANCEL_CHECK_ROWS = 1 << 16;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users (username VARCHAR(255) PRIMARY KEY, password VARCHAR(255) NOT NULL,"
+            + " role VARCHAR(32) NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS expenses (id BIGINT PRIMARY KEY, owner VARCHAR(255) NOT NULL,"
+            + " epoch_day INTEGER NOT NULL, cents BIGINT NOT NULL, category VARCHAR(64) NOT NULL,"
+            + " payment_method VARCHAR(64) NOT NULL, description VARCHAR(4096) NOT NULL, tags VARCHAR(4096) NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS expenses_owner_day ON expenses (owner, epoch_day)",
+        "CREATE INDEX IF NOT EXISTS expenses_owner_category ON expenses (owner, category, epoch_day)",
+        "CREATE INDEX IF NOT EXISTS expenses_owner_payment ON expenses (owner, payment_method, epoch_day)",
+        // Owners whose CSV ledger was taken over, so it is taken over only once
+        "CREATE TABLE IF NOT EXISTS migrated (owner VARCHAR(255) PRIMARY KEY)",
+    };
+    private static final String COLUMNS = "id, epoch_day, cents, category, payment_method, description, tags";
+    // Groups rows of a day and category by the sign of their amount
+    private static final String SIGN = "CASE WHEN cents > 0 THEN 0 WHEN cents < 0 THEN 1 ELSE 2 END";
+
+    // Most connections open at once; a request finding them all busy waits
+    private static final int POOL_SIZE = 8;
+
+    private final String url;
+    private final CsvExpenseRepository legacy;
+    // Open connections not in use
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    // One permit per connection in use or that may still be opened
+    private final Semaphore permits = new Semaphore(POOL_SIZE);
+    private final AtomicLong nextId;
+    private volatile boolean closed;
+
+    // legacy, if not null, is the CSV repository whose data an empty database
+    // or partition starts from
+    public JdbcExpenseRepository(String url, CsvExpenseRepository legacy) throws IOException {
+        this.url = url;
+        this.legacy = legacy;
+        try {
+            Connection connection = connect();
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) statement.execute(ddl);
+                try (ResultSet rs = statement.executeQuery("SELECT MAX(id) FROM expenses")) {
+                    nextId = new AtomicLong(rs.next() ? rs.getLong(1) + 1 : 1);
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            idle.add(connection);
+        } catch (SQLException e) {
+            throw new IOException("Cannot open database " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<String, User> loadUsers() throws IOException {
+        Map<String, User> users = new HashMap<>();
+        try {
+            withConnection(connection -> {
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery("SELECT username, password, role FROM users")) {
+                    while (rs.next()) users.put(rs.getString(1), new User(rs.getString(1), rs.getString(2), rs.getString(3)));
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IOException("Failed to read users: " + e.getMessage(), e);
+        }
+        if (users.isEmpty() && legacy != null) {
+            Map<String, User> imported = legacy.loadUsers();
+            for (User user : imported.values()) saveUser(user);
+            return imported;
+        }
+        return users;
+    }
+
+    @Override
+    public void saveUser(User user) throws IOException {
+        try {
+            withConnection(connection -> {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO users (username, password, role) VALUES (?, ?, ?)")) {
+                    insert.setString(1, user.username);
+                    insert.setString(2, user.password);
+                    insert.setString(3, user.role);
+                    return insert.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new IOException("Failed to save user: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public DatabasePartition open(User user, Ledger.LoadProgress progress) throws IOException {
+        DatabasePartition partition = new DatabasePartition(user.isAdmin() ? SHARED_OWNER : user.username);
+        if (legacy != null && !partition.isMigrated()) {
+            // A partition with rows from before the marker existed was migrated then
+            if (partition.count() == 0) partition.migrate(legacy.dataFile(user), progress);
+            partition.markMigrated();
+        }
+        return partition;
+    }
+
+    // Waits for requests still using a connection, then closes them all
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        permits.acquireUninterruptibly(POOL_SIZE);
+        SQLException failed = null;
+        for (Connection connection; (connection = idle.poll()) != null; ) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failed = e;
+            }
+        }
+        if (failed != null) throw new IOException("Failed to close database: " + failed.getMessage(), failed);
+    }
+
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        // Lets a page and its totals read one state of the table where the
+        // database offers it; SQLite transactions are serializable anyway
+        if (connection.getMetaData().supportsTransactionIsolationLevel(Connection.TRANSACTION_REPEATABLE_READ)) {
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        }
+        return connection;
+    }
+
+    // Runs the work on a connection of the pool, opening one if none is idle.
+    // Requests run side by side on their own connections; the semaphore, not
+    // a monitor, makes the ones past POOL_SIZE wait.
+    private <T> T withConnection(SqlWork<T> work) throws IOException, SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a database connection");
+        }
+        Connection connection = null;
+        try {
+            if (closed) throw new IOException("Database is closed");
+            connection = idle.poll();
+            if (connection == null) connection = connect();
+            return work.run(connection);
+        } finally {
+            if (connection != null && isOpen(connection)) idle.add(connection);
+            permits.release();
+        }
+    }
+
+    private static boolean isOpen(Connection connection) {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Runs the work as one transaction, rolled back if it fails
+    private <T> T inTransaction(SqlWork<T> work) throws IOException, SQLException {
+        return withConnection(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    public final class DatabasePartition implements Partition {
+        private final String owner;
+
+        private DatabasePartition(String owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public ExpenseStore getStore() {
+            return null;
+        }
+
+        int count() throws IOException {
+            try {
+                return withConnection(connection -> {
+                    try (PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM expenses WHERE owner = ?")) {
+                        select.setString(1, owner);
+                        try (ResultSet rs = select.executeQuery()) {
+                            return rs.next() ? rs.getInt(1) : 0;
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        boolean isMigrated() throws IOException {
+            try {
+                return withConnection(connection -> {
+                    try (PreparedStatement select = connection.prepareStatement("SELECT 1 FROM migrated WHERE owner = ?")) {
+                        select.setString(1, owner);
+                        try (ResultSet rs = select.executeQuery()) {
+                            return rs.next();
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        void markMigrated() throws IOException {
+            try {
+                withConnection(connection -> {
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO migrated (owner) SELECT ? WHERE NOT EXISTS (SELECT 1 FROM migrated WHERE owner = ?)")) {
+                        insert.setString(1, owner);
+                        insert.setString(2, owner);
+                        return insert.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        // Copy the live rows of a CSV ledger, journal included, into the partition
+        private void migrate(Path file, Ledger.LoadProgress progress) throws IOException {
+            if (!Files.exists(file)) return;
+            Ledger ledger = new Ledger(file, new ExpenseStore());
+            try {
+                ledger.load(progress);
+                ExpenseStore.Snapshot snapshot = ledger.getStore().snapshot();
+                ExpenseColumns rows = new ExpenseColumns(snapshot.rowCount());
+                for (int row : snapshot.liveRows()) rows.add(snapshot.getColumns(), row, 0);
+                addAll(rows);
+            } finally {
+                ledger.close();
+            }
+        }
+
+        @Override
+        public Expense add(Expense expense) throws IOException {
+            ExpenseColumns row = new ExpenseColumns(1);
+            row.add(expense.getColumns(), expense.getRow(), 0);
+            addAll(row);
+            return new Expense(row, 0);
+        }
+
+        @Override
+        public void remove(Expense expense) throws IOException {
+            removeAll(List.of(expense));
+        }
+
+        @Override
+        public Expense replace(Expense oldValue, Expense newValue) throws IOException {
+            ExpenseColumns row = new ExpenseColumns(1);
+            row.add(newValue.getColumns(), newValue.getRow(), oldValue.getId());
+            return replaceAll(List.of(oldValue), row) > 0 ? new Expense(row, 0) : null;
+        }
+
+        // Ids are assigned here, overwriting the ones in rows
+        @Override
+        public void addAll(ExpenseColumns rows) throws IOException {
+            if (rows.size() == 0) return;
+            try {
+                // Taken before the transaction; ids of one that fails stay unused
+                long firstId = nextId.getAndAdd(rows.size());
+                inTransaction(connection -> {
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO expenses (id, owner, epoch_day, cents, category, payment_method, description, tags)"
+                                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                        for (int row = 0; row < rows.size(); row++) {
+                            insert.setLong(1, firstId + row);
+                            insert.setString(2, owner);
+                            bindValues(insert, 3, rows, row);
+                            insert.addBatch();
+                        }
+                        insert.executeBatch();
+                        for (int row = 0; row < rows.size(); row++) rows.setId(row, firstId + row);
+                        return rows.size();
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public int replaceAll(List<Expense> oldValues, ExpenseColumns newValues) throws IOException {
+            if (oldValues.isEmpty()) return 0;
+            try {
+                return inTransaction(connection -> {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE expenses SET epoch_day = ?, cents = ?, category = ?, payment_method = ?,"
+                                + " description = ?, tags = ? WHERE owner = ? AND id = ?")) {
+                        for (int i = 0; i < oldValues.size(); i++) {
+                            bindValues(update, 1, newValues, i);
+                            update.setString(7, owner);
+                            update.setLong(8, oldValues.get(i).getId());
+                            update.addBatch();
+                        }
+                        return changed(update.executeBatch());
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public int removeAll(List<Expense> expenses) throws IOException {
+            if (expenses.isEmpty()) return 0;
+            try {
+                return inTransaction(connection -> {
+                    try (PreparedStatement delete = connection.prepareStatement(
+                            "DELETE FROM expenses WHERE owner = ? AND id = ?")) {
+                        for (Expense expense : expenses) {
+                            delete.setString(1, owner);
+                            delete.setLong(2, expense.getId());
+                            delete.addBatch();
+                        }
+                        return changed(delete.executeBatch());
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        // One UPDATE over the filter, so rows past MAX_PAGE_ROWS change too
+        @Override
+        public int setCategory(Filter filter, String category) throws IOException {
+            List<Object> params = new ArrayList<>();
+            params.add(category);
+            String where = where(filter, params);
+            try {
+                return inTransaction(connection -> {
+                    try (PreparedStatement update = connection.prepareStatement("UPDATE expenses SET category = ?" + where)) {
+                        bind(update, params);
+                        return update.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+        }
+
+        // The first MAX_PAGE_ROWS matching rows in the order (the database sorts
+        // before the limit, so they are the right rows), totals of every match,
+        // and of the partition the row count and balances either side of the range
+        @Override
+        public Page query(Filter filter, RowIndexList.RowComparator order, BooleanSupplier cancelled) throws IOException {
+            List<Object> params = new ArrayList<>();
+            String where = where(filter, params);
+            Page page;
+            try {
+                // One transaction, so the rows and the totals agree
+                page = inTransaction(connection -> {
+                    ExpenseColumns columns = new ExpenseColumns(1024);
+                    try (PreparedStatement select = connection.prepareStatement(
+                            "SELECT " + COLUMNS + " FROM expenses" + where + " ORDER BY " + orderBy(order) + " LIMIT " + MAX_PAGE_ROWS)) {
+                        bind(select, params);
+                        try (ResultSet rs = select.executeQuery()) {
+                            while (rs.next()) {
+                                if ((columns.size() & (CANCEL_CHECK_ROWS - 1)) == 0 && cancelled.getAsBoolean()) {
+                                    throw new CancellationException();
+                                }
+                                readRow(rs, columns);
+                            }
+                        }
+                    }
+
+                    // Balances come from the partition's totals by day
+                    long[] balances = new long[2];
+                    int fromDay = filter.fromDay(), toDay = filter.toDay();
+                    DaySums balance = (day, sum) -> addBalance(balances, day, sum, fromDay, toDay);
+                    ViewTotals totals = new ViewTotals();
+                    long matched = aggregate(connection, where, params, totals, filter.isAll() ? balance : null);
+                    ViewTotals partitionTotals = totals;
+                    long partitionRows = matched;
+                    if (!filter.isAll()) {
+                        List<Object> ownerOnly = new ArrayList<>();
+                        partitionTotals = new ViewTotals();
+                        partitionRows = aggregate(connection, where(Filter.ALL, ownerOnly), ownerOnly, partitionTotals, balance);
+                    }
+                    int[] rows = new int[columns.size()];
+                    for (int i = 0; i < rows.length; i++) rows[i] = i;
+                    return new Page(columns, rows, (int) matched, totals, (int) partitionRows, partitionTotals,
+                        fromDay == Integer.MIN_VALUE ? 0 : balances[0], balances[1]);
+                });
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+
+            // Already in order; sorting again keeps ties and collation exactly as the table compares
+            RowIndexList.sort(page.rows(), page.columns(), order);
+            return page;
+        }
+
+        // Every row of the partition, read into a new store
+        @Override
+        public ExpenseStore.Snapshot snapshot() throws IOException {
+            ExpenseStore store = new ExpenseStore();
+            try {
+                ExpenseColumns columns = withConnection(connection -> {
+                    try (PreparedStatement select = connection.prepareStatement(
+                            "SELECT " + COLUMNS + " FROM expenses WHERE owner = ? ORDER BY id")) {
+                        select.setString(1, owner);
+                        ExpenseColumns read = new ExpenseColumns(1024);
+                        try (ResultSet rs = select.executeQuery()) {
+                            while (rs.next()) readRow(rs, read);
+                        }
+                        return read;
+                    }
+                });
+                store.appendAll(columns, 0);
+            } catch (SQLException e) {
+                throw failure(e);
+            }
+            return store.snapshot();
+        }
+
+        private String where(Filter filter, List<Object> params) {
+            StringBuilder where = new StringBuilder(" WHERE owner = ?");
+            params.add(owner);
+            if (filter.isSearch()) {
+                String pattern = "%" + filter.search().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+                where.append(" AND (LOWER(description) LIKE ? ESCAPE '\\' OR LOWER(category) LIKE ? ESCAPE '\\'")
+                    .append(" OR LOWER(tags) LIKE ? ESCAPE '\\')");
+                params.add(pattern);
+                params.add(pattern);
+                params.add(pattern);
+                return where.toString();
+            }
+            if (filter.category() != null) {
+                where.append(" AND category = ?");
+                params.add(filter.category());
+            }
+            if (filter.fromDay() != Integer.MIN_VALUE) {
+                where.append(" AND epoch_day >= ?");
+                params.add(filter.fromDay());
+            }
+            if (filter.toDay() != Integer.MAX_VALUE) {
+                where.append(" AND epoch_day <= ?");
+                params.add(filter.toDay());
+            }
+            return where.toString();
+        }
+
+        // Adds the matching rows to totals by day, category and sign; returns how many there are
+        private long aggregate(Connection connection, String where, List<Object> params, ViewTotals totals, DaySums days) throws SQLException {
+            long count = 0;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT epoch_day, category, SUM(cents), COUNT(*) FROM expenses" + where
+                        + " GROUP BY epoch_day, category, " + SIGN)) {
+                bind(select, params);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        int day = rs.getInt(1);
+                        long sum = rs.getLong(3);
+                        long rows = rs.getLong(4);
+                        totals.addGroup(day, Expense.CATEGORY_DICTIONARY.idOf(rs.getString(2)), sum, rows);
+                        if (days != null) days.add(day, sum);
+                        count += rows;
+                    }
+                }
+            }
+            return count;
+        }
+
+        private static void addBalance(long[] balances, int day, long sum, int fromDay, int toDay) {
+            if (fromDay != Integer.MIN_VALUE && day < fromDay) balances[0] += sum;
+            if (day <= toDay) balances[1] += sum;
+        }
+
+        private IOException failure(SQLException e) {
+            return new IOException("Database error: " + e.getMessage(), e);
+        }
+    }
+
+    // The SQL ordering of a table sort order, ties and store order by id. Orders
+    // not built from fields would be sorted on only the first rows by id.
+    private static String orderBy(RowIndexList.RowComparator order) {
+        StringBuilder sql = new StringBuilder();
+        if (order instanceof ExpenseField.Order fields) {
+            for (ExpenseField.SortKey key : fields.keys()) {
+                sql.append(switch (key.field()) {
+                    case DATE -> "epoch_day";
+                    case CATEGORY -> "category";
+                    case AMOUNT -> "cents";
+                    case DESCRIPTION -> "description";
+                    case PAYMENT -> "payment_method";
+                    case TAGS -> "tags";
+                    case TYPE -> "CASE WHEN cents >= 0 THEN 1 ELSE 0 END";
+                });
+                sql.append(key.descending() ? " DESC, " : ", ");
+            }
+        }
+        return sql.append("id").toString();
+    }
+
+    private interface DaySums {
+        void add(int epochDay, long sumCents);
+    }
+
+    private static void readRow(ResultSet rs, ExpenseColumns columns) throws SQLException {
+        columns.add(rs.getLong(1), rs.getInt(2), rs.getLong(3),
+            Expense.CATEGORY_DICTIONARY.idOf(rs.getString(4)), Expense.PAYMENT_DICTIONARY.idOf(rs.getString(5)),
+            rs.getString(6), rs.getString(7));
+    }
+
+    // epoch_day, cents, category, payment_method, description, tags from parameter index first
+    private static void bindValues(PreparedStatement statement, int first, ExpenseColumns rows, int row) throws SQLException {
+        statement.setInt(first, rows.getEpochDay(row));
+        statement.setLong(first + 1, rows.getCents(row));
+        statement.setString(first + 2, Expense.CATEGORY_DICTIONARY.valueOf(rows.getCategoryId(row)));
+        statement.setString(first + 3, Expense.PAYMENT_DICTIONARY.valueOf(rows.getPaymentMethodId(row)));
+        statement.setString(first + 4, rows.getDescription(row));
+        statement.setString(first + 5, rows.getTags(row));
+    }
+
+    private static void bind(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) statement.setObject(i + 1, params.get(i));
+    }
+
+    private static int changed(int[] counts) {
+        int changed = 0;
+        for (int count : counts) {
+            // Drivers may report a batched statement's count as unknown
+            changed += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Appends journal records on a thread of its own. Producers queue record text
+// and get a Commit back, which they wait on once they hold no lock; the writer
+// takes everything queued by then and writes it as one buffered write, so
+// producers arriving together share one write and one fsync (group commit).
+// The queue is bounded: when the disk falls behind, submit() blocks until the
+// writer catches up.
+//
+// When a commit is done depends on the sync policy: once its batch is fsynced
+// (batch), or once it is written to the operating system, which is then
+// fsynced within the interval (every N ms) or whenever it chooses (never).
+//
+// A failed write fails its commits and every later one, as records after a
+// gap would replay out of order. The journal opens a new writer when it is
+// retired.
+//
+// Callers serialize submit() and close(); the ledger does so under its lock.
+public final class JournalWriter implements Closeable {
+
+    // Commits waiting for the writer before submit() blocks
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    // How often written records are forced to disk: intervalMillis 0 after
+    // every batch, -1 never (left to the operating system)
+    public record SyncPolicy(long intervalMillis) {
+        public static final SyncPolicy BATCH = new SyncPolicy(0);
+        public static final SyncPolicy NEVER = new SyncPolicy(-1);
+
+        // "batch", "never" or an interval such as "100ms"
+        public static SyncPolicy parse(String text) {
+            String s = text.trim().toLowerCase(Locale.ROOT);
+            if (s.equals("batch")) return BATCH;
+            if (s.equals("never")) return NEVER;
+            try {
+                long millis = Long.parseLong(s.endsWith("ms") ? s.substring(0, s.length() - 2).trim() : s);
+                if (millis > 0) return new SyncPolicy(millis);
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("fsync must be batch, never or an interval such as 100ms: " + text);
+        }
+
+        @Override
+        public String toString() {
+            return intervalMillis == 0 ? "batch" : intervalMillis < 0 ? "never" : intervalMillis + "ms";
+        }
+    }
+
+    // A submitted write
+    public static final class Commit {
+        // For changes that needed no record
+        public static final Commit DONE = new Commit(null, false);
+
+        private final String text;
+        private final boolean last;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Commit(String text, boolean last) {
+            this.text = text;
+            this.last = last;
+            if (text == null && !last) done.complete(null);
+        }
+
+        // Waits until the record is written as the sync policy asks
+        public void await() throws IOException {
+            try {
+                done.join();
+            } catch (CompletionException e) {
+                throw new IOException("Journal write failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    // Across all writers of the process
+    private static final LatencyHistogram COMMIT_LATENCY = new LatencyHistogram();
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static final LongAdder BATCHES = new LongAdder();
+    private static final LongAdder SYNCS = new LongAdder();
+
+    private static volatile SyncPolicy defaultPolicy = policyProperty();
+
+    private final FileChannel channel;
+    private final Writer out;
+    private final SyncPolicy policy;
+    private final BlockingQueue<Commit> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public JournalWriter(Path file, SyncPolicy policy) throws IOException {
+        this.policy = policy;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_CHARS);
+        thread = new Thread(this::run, "budgify-journal-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The policy of writers opened from now on; initially the budgify.fsync
+    // system property, or batch
+    public static SyncPolicy getDefaultPolicy() { return defaultPolicy; }
+
+    public static void setDefaultPolicy(SyncPolicy policy) { defaultPolicy = policy; }
+
+    private static SyncPolicy policyProperty() {
+        String value = System.getProperty("budgify.fsync");
+        if (value == null) return SyncPolicy.BATCH;
+        try {
+            return SyncPolicy.parse(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return SyncPolicy.BATCH;
+        }
+    }
+
+    // Time from submit() until a commit was done
+    public static LatencyHistogram commitLatency() { return COMMIT_LATENCY; }
+
+    // Commits queued or blocked in submit()
+    public static int queuedCommits() { return QUEUED.get(); }
+
+    public static long batches() { return BATCHES.sum(); }
+
+    public static long syncs() { return SYNCS.sum(); }
+
+    public SyncPolicy getPolicy() { return policy; }
+
+    // Commits of this writer not yet taken by its thread
+    public int queueDepth() { return queue.size(); }
+
+    // Queue the text, which must end with a newline; blocks while the queue is full
+    public Commit submit(String text) throws IOException {
+        IOException failed = failure;
+        if (failed != null) throw new IOException("Journal write failed earlier: " + failed.getMessage(), failed);
+        if (closed) throw new IOException("Journal is closed");
+        Commit commit = new Commit(text, false);
+        QUEUED.incrementAndGet();
+        try {
+            queue.put(commit);
+        } catch (InterruptedException e) {
+            QUEUED.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the journal writer");
+        }
+        return commit;
+    }
+
+    private void run() {
+        List<Commit> batch = new ArrayList<>();
+        // Whether written records wait for an fsync, and when it is due
+        boolean dirty = false;
+        long syncDue = 0;
+        boolean last = false;
+        while (!last) {
+            batch.clear();
+            try {
+                Commit first = dirty && policy.intervalMillis() > 0
+                    ? queue.poll(syncDue - System.nanoTime(), TimeUnit.NANOSECONDS)
+                    : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                // Only close() stops the writer
+                continue;
+            }
+            boolean wrote = false;
+            for (Commit commit : batch) {
+                if (commit.last) last = true;
+                else wrote |= commit.text != null;
+            }
+            QUEUED.addAndGet(-(last ? batch.size() - 1 : batch.size()));
+
+            IOException error = failure;
+            if (error == null) {
+                try {
+                    long interval = policy.intervalMillis();
+                    if (wrote) {
+                        for (Commit commit : batch) {
+                            if (commit.text != null) out.write(commit.text);
+                        }
+                        out.flush();
+                        BATCHES.increment();
+                        if (!dirty) syncDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                        dirty = true;
+                    }
+                    if (dirty && (interval == 0 || (interval > 0 && (last || System.nanoTime() - syncDue >= 0)))) {
+                        channel.force(false);
+                        SYNCS.increment();
+                        dirty = false;
+                    }
+                } catch (IOException e) {
+                    failure = error = e;
+                }
+            }
+            long now = System.nanoTime();
+            for (Commit commit : batch) {
+                if (error != null) {
+                    commit.done.completeExceptionally(error);
+                } else {
+                    if (commit.text != null) COMMIT_LATENCY.record(now - commit.queuedNanos);
+                    commit.done.complete(null);
+                }
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Already failed, and reported to the commits
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    // Writes what is queued, fsyncs it unless the policy is never, and stops
+    // the thread. Does not throw a failure the commits already reported.
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            Commit last = new Commit(null, true);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(last);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,774 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32C;
+
+// Persistence for one ledger: a base CSV file plus an append-only journal.
+//
+// Mutations are applied to the in-memory ExpenseStore and recorded as a
+// single journal line, so their cost does not depend on the ledger size.
+// The journal's writer thread groups the lines of concurrent mutations into
+// one write and fsync (see JournalWriter).
+// A background compactor periodically folds the journal into a fresh base
+// file which replaces the old one with an atomic rename.
+//
+// A binary snapshot of the base file (see LedgerSnapshot) lets startup skip
+// parsing it. It is rewritten after every compaction, and in the background
+// after a load that had to parse CSV text the snapshot did not cover.
+//
+// Other programs may append lines to the base file while it is loaded;
+// readAppended() picks up just the new bytes (see BaseFileFollower), and a
+// base file rewritten or truncated underneath marks the ledger stale until it
+// is loaded again. Compaction never replaces a base file holding lines the
+// store has not seen.
+//
+// One process at a time may load a ledger: load() takes an exclusive lock on
+// a ".lock" file beside the base file and fails while another process holds
+// it, as two journal writers and compactors on one journal would lose rows.
+// close() releases it.
+//
+// As the CSV backend's partition it answers queries from the store, through
+// a search index and the category and date indexes.
+public class Ledger implements ExpenseRepository.Partition, Closeable {
+
+    // Fold the journal once it holds this many records, or once its oldest record is this old
+    private static final int COMPACT_RECORD_THRESHOLD = 1000;
+    private static final long COMPACT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long COMPACT_CHECK_SECONDS = 30;
+    // Appends larger than this are read with a full (snapshot-assisted, parallel) load instead
+    private static final long FOLLOW_MAX_BYTES = 64L << 20;
+    // Bytes before the followed offset that must stay unchanged for the file to count as appended to
+    private static final int FOLLOW_CHECK_BYTES = 4096;
+
+    private final Path baseFile;
+    private final Path compactFile;
+    private final Path appliedFile;
+    private final Path snapFile;
+    private final Path lockFile;
+    private final ExpenseStore store;
+    private final ExpenseJournal journal;
+    // Guards the fields below and orders changes into the journal. A lock
+    // rather than a monitor: loads, compaction and a full journal queue block
+    // while holding it, which would pin the carrier of a virtual thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledExecutorService compactor;
+    private long firstPendingMillis;
+    // Base rows still to be written as a snapshot, null if it is current
+    private BaseImage pendingSnapshot;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final FilterIndex filterIndex = new FilterIndex();
+
+    // The first rows of a store as loaded from the first length bytes of the base file
+    private record BaseImage(ExpenseStore.Snapshot store, int rows, long length, long crc, int lines) { }
+
+    // How far the base file has been read (always just past a newline) and the
+    // lines up to there, how the file looked there, and how much of it the
+    // store reflects, which includes an unterminated last line read by load()
+    private long readLength;
+    private int readLines;
+    private Object baseKey;
+    private long baseCheck;
+    private long coveredLength;
+    // Row loaded from an unterminated last line, replaced once the line is complete; -1 if none
+    private int partialRow = -1;
+    // Set while a batch returned by readAppended() has not been applied
+    private boolean appendPending;
+    private boolean stale;
+    // Counts loads, so batches read before a reload are dropped
+    private int generation;
+    private boolean closed;
+    // Held from the first load until close
+    private FileChannel lockChannel;
+
+    // Lines another program appended to the base file, parsed but not yet in
+    // the store; or, if needsReload(), word that the file was rewritten
+    public static final class Appended {
+        private final int generation;
+        private final CsvLoader.Parsed parsed;
+        private final long to;
+
+        private Appended(int generation, CsvLoader.Parsed parsed, long to) {
+            this.generation = generation;
+            this.parsed = parsed;
+            this.to = to;
+        }
+
+        public boolean needsReload() { return parsed == null; }
+
+        public int size() { return parsed == null ? 0 : parsed.columns().size(); }
+    }
+
+    public Ledger(Path baseFile, ExpenseStore store) {
+        this.baseFile = baseFile;
+        this.compactFile = sibling(baseFile, ".compact");
+        this.appliedFile = sibling(baseFile, ".journal.applied");
+        this.snapFile = sibling(baseFile, ".snap");
+        this.lockFile = sibling(baseFile, ".lock");
+        this.journal = new ExpenseJournal(sibling(baseFile, ".journal"));
+        this.store = store;
+    }
+
+    private static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    // Called on the loading thread whenever more of the base file has reached the store
+    public interface LoadProgress {
+        void loaded(Ledger ledger, long bytes, long totalBytes);
+    }
+
+    @Override
+    public ExpenseStore getStore() { return store; }
+
+    public Path getBaseFile() { return baseFile; }
+
+    public void load() throws IOException {
+        load((ledger, bytes, totalBytes) -> { });
+    }
+
+    // Load the base file, through its snapshot when that is still valid, and
+    // replay the journal into the store. Rows reach the store in batches, so
+    // other threads may read it through snapshots while this runs.
+    public void load(LoadProgress progress) throws IOException {
+        lock.lock();
+        boolean locked = false;
+        try {
+            checkOpen();
+            if (lockChannel == null) {
+                lockFiles();
+                locked = true;
+            }
+            recoverCompaction();
+
+            store.clear();
+            pendingSnapshot = null;
+            generation++;
+            stale = false;
+            appendPending = false;
+            partialRow = -1;
+            readLength = 0;
+            readLines = 0;
+            coveredLength = 0;
+            if (Files.exists(baseFile)) {
+                Object key = fileKey();
+                long size = Files.size(baseFile);
+                LedgerSnapshot snapshot = LedgerSnapshot.load(snapFile, baseFile, store);
+                long loaded = snapshot == null ? 0 : snapshot.baseLength;
+                int lines = snapshot == null ? 0 : snapshot.lineCount;
+                size = Math.max(size, loaded);
+                if (loaded > 0) progress.loaded(this, loaded, size);
+                // Only the lines appended since the snapshot was written are parsed
+                final long total = size;
+                lines += CsvLoader.load(baseFile, store, loaded, size, lines, end -> progress.loaded(this, end, total));
+
+                // A trailing line without its newline may still be being written; the
+                // snapshot and the follower start before it
+                long complete = LedgerSnapshot.completeLength(baseFile, size);
+                int completeLines = complete == size ? lines : lines - 1;
+                ExpenseColumns columns = store.getColumns();
+                int rows = columns.size();
+                if (complete < size && rows > 0 && columns.getId(rows - 1) == lines) partialRow = rows - 1;
+                if (complete != loaded) {
+                    while (rows > 0 && columns.getId(rows - 1) > completeLines) rows--;
+                    pendingSnapshot = new BaseImage(store.snapshot(), rows, complete,
+                        LedgerSnapshot.checksum(baseFile, complete), completeLines);
+                }
+                readLength = complete;
+                readLines = completeLines;
+                baseKey = key;
+                baseCheck = followCheck(complete);
+                coveredLength = size;
+            }
+            journal.replay(store);
+            firstPendingMillis = journal.getRecordCount() > 0 ? System.currentTimeMillis() : 0;
+            locked = false;
+        } finally {
+            // A first load that failed leaves the files to other processes
+            if (locked) unlockFiles();
+            lock.unlock();
+        }
+    }
+
+    private void lockFiles() throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock held;
+        try {
+            held = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            held = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (held == null) {
+            channel.close();
+            throw new IOException("Ledger " + baseFile + " is open in another Budgify process or window;"
+                + " close it there first");
+        }
+        lockChannel = channel;
+    }
+
+    // Closing the channel releases its lock
+    private void unlockFiles() {
+        if (lockChannel == null) return;
+        try {
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("Unlocking " + baseFile + " failed: " + e.getMessage());
+        }
+        lockChannel = null;
+    }
+
+    // Whether the base file was rewritten or truncated since it was loaded
+    public boolean isStale() {
+        lock.lock();
+        try {
+            return stale;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Read the lines appended to the base file since the last call. Null if
+    // there are none (or only an unfinished line); a batch needing a reload if
+    // the file no longer starts with what was read. Runs off the JavaFX thread;
+    // the batch is applied with applyAppended().
+    public Appended readAppended() throws IOException {
+        long from;
+        int firstLine, gen;
+        Object key;
+        long check;
+        lock.lock();
+        try {
+            if (stale) return new Appended(generation, null, 0);
+            from = readLength;
+            firstLine = readLines;
+            gen = generation;
+            key = baseKey;
+            check = baseCheck;
+        } finally {
+            lock.unlock();
+        }
+        if (!Files.exists(baseFile)) return null;
+
+        long size = Files.size(baseFile);
+        boolean rewritten = size < from
+            || (from > 0 && (!Objects.equals(fileKey(), key) || followCheck(from) != check));
+        if (rewritten || size - from > FOLLOW_MAX_BYTES) {
+            lock.lock();
+            try {
+                if (gen != generation) return null;
+                stale = true;
+                return new Appended(generation, null, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+        long to = LedgerSnapshot.completeLength(baseFile, size);
+        if (to <= from) return null;
+        CsvLoader.Parsed parsed = CsvLoader.parse(baseFile, from, to, firstLine);
+
+        lock.lock();
+        try {
+            // Dropped if a load or compaction moved the offset meanwhile
+            if (gen != generation || readLength != from) return null;
+            readLength = to;
+            readLines = firstLine + parsed.lineCount();
+            if (from == 0) baseKey = fileKey();
+            baseCheck = followCheck(to);
+            appendPending = true;
+            return new Appended(gen, parsed, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Add a batch from readAppended() to the store, notifying its listeners
+    // row by row. Call on the thread that makes the other changes.
+    public void applyAppended(Appended appended) {
+        lock.lock();
+        try {
+            if (appended.generation != generation || appended.needsReload()) return;
+            ExpenseColumns columns = appended.parsed.columns();
+            for (int row = 0; row < columns.size(); row++) {
+                Expense expense = new Expense(columns, row);
+                long id = columns.getId(row);
+                if (partialRow >= 0 && store.getColumns().getId(partialRow) == id) {
+                    // The rest of the line load() found unfinished
+                    Expense partial = store.view(partialRow);
+                    if (store.contains(partial)) store.replace(partial, expense);
+                } else {
+                    store.add(expense, id);
+                }
+            }
+            partialRow = -1;
+            coveredLength = Math.max(coveredLength, appended.to);
+            appendPending = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether a new base file may replace the current one without losing lines
+    // that other programs appended
+    private boolean baseFollowed() throws IOException {
+        return !stale && !appendPending && (Files.exists(baseFile) ? Files.size(baseFile) : 0) == coveredLength;
+    }
+
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(baseFile, BasicFileAttributes.class).fileKey();
+    }
+
+    // CRC32C of the bytes just before the offset
+    private long followCheck(long offset) throws IOException {
+        long start = Math.max(0, offset - FOLLOW_CHECK_BYTES);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (offset - start));
+        try (FileChannel channel = FileChannel.open(baseFile, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) break;
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.flip());
+        return crc.getValue();
+    }
+
+    // Finish or roll back a compaction interrupted by a crash
+    private void recoverCompaction() throws IOException {
+        if (Files.exists(appliedFile)) {
+            // The journal was already retired, so the new base file is complete
+            if (Files.exists(compactFile)) {
+                Files.move(compactFile, baseFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.delete(appliedFile);
+        } else {
+            Files.deleteIfExists(compactFile);
+        }
+        Files.deleteIfExists(sibling(snapFile, ".tmp"));
+    }
+
+    // Runs against a snapshot, so it does not wait for a load or compaction.
+    // Totals of a filter made of whole months and/or one category come from the
+    // aggregate cube rather than the rows.
+    @Override
+    public ExpenseRepository.Page query(ExpenseRepository.Filter filter, RowIndexList.RowComparator order,
+                                        BooleanSupplier cancelled) {
+        ExpenseStore.Snapshot snapshot = store.snapshot();
+        int[] rows = matchingRows(snapshot, filter);
+        AggregateCube.Slice slice = null;
+        if (!filter.isSearch()) {
+            int categoryId = filter.category() == null
+                ? FilterIndex.ANY_CATEGORY : Expense.CATEGORY_DICTIONARY.find(filter.category());
+            // An unknown category matches no rows, and has no slice
+            if (categoryId >= 0 || filter.category() == null) {
+                slice = AggregateCube.Slice.of(categoryId, filter.from(), filter.to());
+            }
+        }
+        ViewTotals totals = new ViewTotals();
+        totals.rebuild(snapshot, rows, slice, cancelled);
+        ViewTotals partitionTotals = new ViewTotals();
+        partitionTotals.addCube(snapshot.getCube(), AggregateCube.Slice.ALL);
+        // The caller takes ownership of the rows, and indexes may hold on to theirs
+        int[] shown = RowIndexList.sort(rows.clone(), snapshot.getColumns(), order);
+        long opening = filter.fromDay() == Integer.MIN_VALUE ? 0 : store.balanceAsOf(filter.fromDay() - 1);
+        long closing = store.balanceAsOf(filter.toDay());
+        return new ExpenseRepository.Page(snapshot.getOwner(), shown, shown.length, totals,
+            snapshot.liveRows().length, partitionTotals, opening, closing);
+    }
+
+    // Rows of the snapshot the filter selects, as the indexes hold them (do not modify)
+    private int[] matchingRows(ExpenseStore.Snapshot snapshot, ExpenseRepository.Filter filter) {
+        if (filter.isSearch()) return searchIndex.search(filter.search(), snapshot);
+        int categoryId = filter.category() == null
+            ? FilterIndex.ANY_CATEGORY : Expense.CATEGORY_DICTIONARY.find(filter.category());
+        if (filter.category() != null && categoryId < 0) return new int[0];
+        return filterIndex.rows(snapshot, categoryId, filter.fromDay(), filter.toDay());
+    }
+
+    @Override
+    public ExpenseStore.Snapshot snapshot() {
+        return store.snapshot();
+    }
+
+    // Rows changed after the snapshot was taken are skipped, as in replaceAll
+    @Override
+    public int setCategory(ExpenseRepository.Filter filter, String category) throws IOException {
+        ExpenseStore.Snapshot snapshot = store.snapshot();
+        int[] rows = matchingRows(snapshot, filter);
+        short categoryId = Expense.CATEGORY_DICTIONARY.idOf(category);
+        ExpenseColumns columns = snapshot.getColumns();
+        List<Expense> targets = new ArrayList<>(rows.length);
+        ExpenseColumns replacements = new ExpenseColumns(Math.max(1, rows.length));
+        for (int row : rows) {
+            targets.add(snapshot.view(row));
+            replacements.add(0, columns.getEpochDay(row), columns.getCents(row), categoryId,
+                columns.getPaymentMethodId(row), columns.getDescription(row), columns.getTags(row));
+        }
+        return replaceAll(targets, replacements);
+    }
+
+    // Each change reaches the store and the journal's queue under the lock,
+    // in the same order, and then waits for its commit without the lock, so
+    // changes from several threads share the journal writes. If the write
+    // fails the change stays in memory, the caller gets the IOException and
+    // later changes fail until a compaction retires the journal.
+
+    // Returns the stored row, which replaces the detached expense passed in
+    @Override
+    public Expense add(Expense expense) throws IOException {
+        JournalWriter.Commit commit;
+        Expense stored;
+        lock.lock();
+        try {
+            checkOpen();
+            long id = journal.nextId();
+            commit = journal.logInsert(expense, id);
+            markPending();
+            stored = store.add(expense, id);
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+        return stored;
+    }
+
+    // Add many detached rows with one journal write. Listeners are not
+    // notified; callers refresh their views once.
+    @Override
+    public void addAll(ExpenseColumns rows) throws IOException {
+        if (rows.size() == 0) return;
+        JournalWriter.Commit commit;
+        lock.lock();
+        try {
+            checkOpen();
+            long[] ids = new long[rows.size()];
+            for (int row = 0; row < ids.length; row++) ids[row] = journal.nextId();
+            commit = journal.logInserts(rows, ids);
+            markPending();
+            for (int row = 0; row < ids.length; row++) store.appendRow(new Expense(rows, row), ids[row]);
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+    }
+
+    @Override
+    public void remove(Expense expense) throws IOException {
+        JournalWriter.Commit commit;
+        lock.lock();
+        try {
+            checkOpen();
+            if (!store.contains(expense)) return;
+            commit = journal.logDelete(expense.getId());
+            markPending();
+            store.remove(expense);
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+    }
+
+    // The replacement keeps the transaction id of the row it replaces
+    @Override
+    public Expense replace(Expense oldValue, Expense newValue) throws IOException {
+        JournalWriter.Commit commit;
+        Expense stored;
+        lock.lock();
+        try {
+            checkOpen();
+            if (!store.contains(oldValue)) return null;
+            commit = journal.logUpdate(newValue, oldValue.getId());
+            markPending();
+            stored = store.replace(oldValue, newValue);
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+        return stored;
+    }
+
+    // Replace each of oldValues with the row of newValues at the same index, as
+    // one journal batch: after a crash either every replacement is replayed or
+    // none is. Rows no longer in the store are skipped. Listeners are not
+    // notified; callers refresh their views once. Returns the rows replaced.
+    @Override
+    public int replaceAll(List<Expense> oldValues, ExpenseColumns newValues) throws IOException {
+        JournalWriter.Commit commit;
+        int replaced;
+        lock.lock();
+        try {
+            checkOpen();
+            ExpenseColumns updates = new ExpenseColumns(oldValues.size());
+            List<Expense> targets = new ArrayList<>(oldValues.size());
+            BitSet seen = new BitSet();
+            for (int i = 0; i < oldValues.size(); i++) {
+                Expense oldValue = oldValues.get(i);
+                if (!store.contains(oldValue) || seen.get(oldValue.getRow())) continue;
+                seen.set(oldValue.getRow());
+                updates.add(newValues, i, oldValue.getId());
+                targets.add(oldValue);
+            }
+            if (targets.isEmpty()) return 0;
+            long[] ids = new long[targets.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = targets.get(i).getId();
+            commit = journal.logBatch(updates, ids, new long[0]);
+            markPending();
+            for (int i = 0; i < ids.length; i++) {
+                store.killRow(targets.get(i).getRow());
+                store.appendRow(new Expense(updates, i), ids[i]);
+            }
+            replaced = ids.length;
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+        return replaced;
+    }
+
+    // Remove the rows as one journal batch; as replaceAll, without notifying
+    // listeners. Returns the rows removed.
+    @Override
+    public int removeAll(List<Expense> expenses) throws IOException {
+        JournalWriter.Commit commit;
+        int removed;
+        lock.lock();
+        try {
+            checkOpen();
+            List<Expense> targets = new ArrayList<>(expenses.size());
+            BitSet seen = new BitSet();
+            for (Expense expense : expenses) {
+                if (!store.contains(expense) || seen.get(expense.getRow())) continue;
+                seen.set(expense.getRow());
+                targets.add(expense);
+            }
+            if (targets.isEmpty()) return 0;
+            long[] ids = new long[targets.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = targets.get(i).getId();
+            commit = journal.logBatch(new ExpenseColumns(1), new long[0], ids);
+            markPending();
+            for (Expense expense : targets) store.killRow(expense.getRow());
+            removed = ids.length;
+        } finally {
+            lock.unlock();
+        }
+        commit.await();
+        return removed;
+    }
+
+    // A ledger closed (say by LedgerCache eviction) while a caller still held
+    // it must not write: its files may already belong to a newly loaded ledger
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("Ledger " + baseFile + " was closed; open it again");
+    }
+
+    private void markPending() {
+        if (firstPendingMillis == 0) firstPendingMillis = System.currentTimeMillis();
+    }
+
+    public void startCompactor() {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "budgify-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.execute(this::writePendingSnapshot);
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (shouldCompact()) compact();
+            } catch (IOException e) {
+                System.err.println("Compaction of " + baseFile + " failed: " + e.getMessage());
+            }
+        }, COMPACT_CHECK_SECONDS, COMPACT_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private boolean shouldCompact() {
+        lock.lock();
+        try {
+            int records = journal.getRecordCount();
+            return records >= COMPACT_RECORD_THRESHOLD
+                || (records > 0 && System.currentTimeMillis() - firstPendingMillis >= COMPACT_MAX_AGE_MILLIS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Write the snapshot recorded by load(), unless a compaction replaced it first
+    private void writePendingSnapshot() {
+        BaseImage image;
+        lock.lock();
+        try {
+            image = pendingSnapshot;
+        } finally {
+            lock.unlock();
+        }
+        if (image == null) return;
+        try {
+            ExpenseColumns columns = image.store().getColumns();
+            int[] rows = new int[image.rows()];
+            for (int row = 0; row < rows.length; row++) rows[row] = row;
+
+            Path temp = sibling(snapFile, ".tmp");
+            LedgerSnapshot.write(temp, columns, rows, null, image.length(), image.crc(), image.lines());
+            lock.lock();
+            try {
+                if (pendingSnapshot != image) {
+                    Files.deleteIfExists(temp);
+                    return;
+                }
+                Files.move(temp, snapFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                pendingSnapshot = null;
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            System.err.println("Writing snapshot of " + baseFile + " failed: " + e.getMessage());
+        }
+    }
+
+    // Fold the journal into a new base file. The file is written without holding
+    // the lock; if a mutation lands meanwhile the attempt is dropped and retried later.
+    public boolean compact() throws IOException {
+        ExpenseColumns snapshot;
+        int[] rows;
+        int records;
+        lock.lock();
+        try {
+            records = journal.getRecordCount();
+            if (records == 0 || !baseFollowed()) return false;
+            snapshot = store.getColumns().snapshot();
+            rows = store.liveRows();
+        } finally {
+            lock.unlock();
+        }
+
+        long length;
+        try (FileChannel channel = FileChannel.open(compactFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder(128);
+            for (int row : rows) {
+                line.setLength(0);
+                writer.append(appendRow(line, snapshot, row));
+            }
+            writer.flush();
+            channel.force(true);
+            length = channel.size();
+        }
+        long crc = LedgerSnapshot.checksum(compactFile, length);
+        // Written before the commit; it only validates against the new base file
+        Path temp = sibling(snapFile, ".tmp");
+        long[] ids = new long[rows.length];
+        for (int i = 0; i < ids.length; i++) ids[i] = i + 1;
+        boolean snapped = writeSnapshot(temp, snapshot, rows, ids, length, crc);
+
+        lock.lock();
+        try {
+            if (journal.getRecordCount() != records || !baseFollowed()) {
+                Files.deleteIfExists(compactFile);
+                Files.deleteIfExists(temp);
+                return false;
+            }
+            // Retiring the journal is the commit point, see recoverCompaction()
+            journal.retire(appliedFile);
+            Files.move(compactFile, baseFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(appliedFile);
+            // Rows are now identified by their line in the new base file
+            store.renumber(rows);
+            firstPendingMillis = 0;
+            pendingSnapshot = null;
+            // Follow the new file from its end
+            readLength = length;
+            readLines = rows.length;
+            coveredLength = length;
+            baseKey = fileKey();
+            baseCheck = followCheck(length);
+            partialRow = -1;
+            if (snapped) {
+                try {
+                    Files.move(temp, snapFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    // The old snapshot no longer matches the base file and will be ignored
+                    System.err.println("Replacing snapshot of " + baseFile + " failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private boolean writeSnapshot(Path file, ExpenseColumns columns, int[] rows, long[] ids, long length, long crc) {
+        try {
+            LedgerSnapshot.write(file, columns, rows, ids, length, crc, rows.length);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Writing snapshot of " + baseFile + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Stops the compactor and folds any pending records so the CSV is current for other tools
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            try {
+                compactor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compactor = null;
+        }
+        try {
+            if (!compact()) writePendingSnapshot();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                journal.close();
+            } finally {
+                unlockFiles();
+                lock.unlock();
+            }
+        }
+    }
+
+    // Parse one row in the base CSV layout. Null if the row has too few fields;
+    // throws if a field does not parse
+    static Expense parseRow(String line) {
+        String[] parts = line.split(",", -1);
+        if (parts.length < 6) return null;
+
+        LocalDate date = LocalDate.parse(parts[0].trim());
+        String category = parts[1].trim();
+        double amount = Double.parseDouble(parts[2].trim());
+        String description = parts[3].trim();
+        String paymentMethod = parts[4].trim();
+        String tags = parts[5].trim();
+
+        return new Expense(
+            date, category, amount,
+            description, paymentMethod, tags
+        );
+    }
+
+    // One row in the base CSV layout, amounts through Money rather than
+    // String.format, so the text does not depend on the default locale
+    static StringBuilder appendRow(StringBuilder out, ExpenseColumns columns, int row) {
+        out.append(LocalDate.ofEpochDay(columns.getEpochDay(row))).append(',')
+            .append(Expense.CATEGORY_DICTIONARY.valueOf(columns.getCategoryId(row))).append(',');
+        Money.append(out, columns.getCents(row)).append(',')
+            .append(columns.getDescription(row)).append(',')
+            .append(Expense.PAYMENT_DICTIONARY.valueOf(columns.getPaymentMethodId(row))).append(',')
+            .append(columns.getTags(row)).append('\n');
+        return out;
+    }
+}
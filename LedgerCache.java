@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Loaded ledgers of recently active partitions, so switching back to a user
+// does not re-read their files. The cache is bounded by the total rows held
+// in memory: once over, the least recently opened ledgers are closed (which
+// folds their journals into their CSV files) and dropped. The ledger just
+// opened is always kept, however large. A ledger whose base file was
+// rewritten underneath it is loaded again when next opened.
+//
+// Loading and closing happen outside the cache's lock, so opening one
+// partition never waits for another's files. A file being loaded or closed
+// has a future in busy; whoever else wants it waits for that and looks
+// again, so no two ledgers ever work on the same files.
+public class LedgerCache implements Closeable {
+
+    private final long maxRows;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access order: least recently opened first
+    private final LinkedHashMap<Path, Ledger> ledgers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, CompletableFuture<Void>> busy = new HashMap<>();
+
+    public LedgerCache(long maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public Ledger open(Path baseFile) throws IOException {
+        return open(baseFile, (ledger, bytes, totalBytes) -> { });
+    }
+
+    // The loaded ledger for the base file, loading it on first use with progress
+    // reported as it goes (to the caller that loads it; others just wait)
+    public Ledger open(Path baseFile, Ledger.LoadProgress progress) throws IOException {
+        Path key = baseFile.toAbsolutePath().normalize();
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        Ledger ledger;
+        while (true) {
+            CompletableFuture<Void> other;
+            List<Ledger> evicted;
+            lock.lock();
+            try {
+                other = busy.get(key);
+                ledger = ledgers.get(key);
+                if (other == null) {
+                    if (ledger == null || ledger.isStale()) {
+                        busy.put(key, mine);
+                        break;
+                    }
+                    evicted = evict(ledger);
+                } else {
+                    evicted = List.of();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (other == null) {
+                closeAll(evicted);
+                return ledger;
+            }
+            // Loaded or closed by another caller; look again once it is done
+            other.join();
+        }
+
+        boolean added = false;
+        try {
+            if (ledger == null) {
+                ledger = new Ledger(key, new ExpenseStore());
+                ledger.load(progress);
+                ledger.startCompactor();
+            } else {
+                // Rewritten by another program since it was loaded
+                ledger.load(progress);
+            }
+            List<Ledger> evicted;
+            lock.lock();
+            try {
+                ledgers.put(key, ledger);
+                added = true;
+                busy.remove(key, mine);
+                evicted = evict(ledger);
+            } finally {
+                lock.unlock();
+            }
+            mine.complete(null);
+            closeAll(evicted);
+            return ledger;
+        } finally {
+            if (!added) {
+                lock.lock();
+                try {
+                    busy.remove(key, mine);
+                } finally {
+                    lock.unlock();
+                }
+                mine.complete(null);
+            }
+        }
+    }
+
+    // Drop least recently opened ledgers until under the limit, marking their
+    // files busy until closeAll() has closed them. Call with the lock held.
+    private List<Ledger> evict(Ledger keep) {
+        long rows = 0;
+        for (Ledger ledger : ledgers.values()) rows += ledger.getStore().rowCount();
+        List<Ledger> evicted = new ArrayList<>();
+        Iterator<Ledger> it = ledgers.values().iterator();
+        while (rows > maxRows && it.hasNext()) {
+            Ledger ledger = it.next();
+            // Ledgers being loaded again are left to their loader
+            if (ledger == keep || busy.containsKey(ledger.getBaseFile())) continue;
+            rows -= ledger.getStore().rowCount();
+            it.remove();
+            busy.put(ledger.getBaseFile(), new CompletableFuture<>());
+            evicted.add(ledger);
+        }
+        return evicted;
+    }
+
+    private void closeAll(List<Ledger> evicted) throws IOException {
+        IOException failure = null;
+        for (Ledger ledger : evicted) {
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            } finally {
+                CompletableFuture<Void> closing;
+                lock.lock();
+                try {
+                    closing = busy.remove(ledger.getBaseFile());
+                } finally {
+                    lock.unlock();
+                }
+                if (closing != null) closing.complete(null);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Ledger> all;
+        lock.lock();
+        try {
+            all = new ArrayList<>(ledgers.values());
+            ledgers.clear();
+            for (Ledger ledger : all) busy.put(ledger.getBaseFile(), new CompletableFuture<>());
+        } finally {
+            lock.unlock();
+        }
+        closeAll(all);
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+// Budgify without its window: the repository holding accounts and ledgers,
+// logging in, opening a user's partition and the queries every view is
+// drawn from. The JavaFX application and the report command both sit on it;
+// nothing here touches the JavaFX toolkit.
+public final class LedgerEngine implements Closeable {
+
+    // Rows kept loaded across logins before the least recently used partitions are closed
+    private static final long MAX_CACHED_ROWS = 5_000_000;
+
+    private final ExpenseRepository repository;
+
+    public LedgerEngine(ExpenseRepository repository) {
+        this.repository = repository;
+    }
+
+    // CSV files in the directory, unless dbUrl (a JDBC URL, or null) names an
+    // embedded database, which starts from the CSV files' contents
+    public static LedgerEngine open(Path directory, String dbUrl) throws IOException {
+        CsvExpenseRepository csv = new CsvExpenseRepository(directory, MAX_CACHED_ROWS);
+        return new LedgerEngine(dbUrl == null ? csv : new JdbcExpenseRepository(dbUrl, csv));
+    }
+
+    public Map<String, User> loadUsers() throws IOException {
+        return repository.loadUsers();
+    }
+
+    public void saveUser(User user) throws IOException {
+        repository.saveUser(user);
+    }
+
+    // The account with these credentials, or null
+    public static User login(Map<String, User> users, String username, String password) {
+        User user = users.get(username);
+        return user != null && user.password.equals(password) ? user : null;
+    }
+
+    public ExpenseRepository.Partition open(User user, Ledger.LoadProgress progress) throws IOException {
+        return repository.open(user, progress);
+    }
+
+    // A ledger file outside the repository, loaded on its own (with its
+    // journal and snapshot beside it); close it when done
+    public static Ledger openFile(Path file, Ledger.LoadProgress progress) throws IOException {
+        Ledger ledger = new Ledger(file, new ExpenseStore());
+        ledger.load(progress);
+        return ledger;
+    }
+
+    // Rows of the partition matching the filter with their totals; an empty
+    // page when there is no partition yet
+    public static ExpenseRepository.Page query(ExpenseRepository.Partition partition, ExpenseRepository.Filter filter,
+                                               RowIndexList.RowComparator order, BooleanSupplier cancelled) throws IOException {
+        return partition == null ? ExpenseRepository.Page.empty() : partition.query(filter, order, cancelled);
+    }
+
+    // Folds every loaded partition's journal into its file
+    @Override
+    public void close() throws IOException {
+        repository.close();
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+// Binary image of a ledger's base CSV file, kept next to it so startup does
+// not have to parse text. Layout, big-endian:
+//
+//   header      magic, version, base length, base CRC, base line count, row count
+//   dictionaries  category and payment method names, in id order
+//   columns     ids (long), epoch days (int), cents (long), category and
+//               payment method ids (short), one array per column
+//   strings     description and tag offsets (rows + 1 ints) and UTF-8 heaps
+//   trailer     CRC32C of everything before it
+//
+// The image covers the first "base length" bytes of the CSV file, which must
+// still hash to the recorded CRC; lines appended after that are parsed from
+// the CSV as usual. Anything that does not check out makes load() return null
+// so the caller falls back to a full parse. CSV remains the file other tools
+// read and write; the snapshot is only a cache of it.
+final class LedgerSnapshot {
+
+    private static final int MAGIC = 0x42554447; // "BUDG"
+    // Version 2 widened the dictionary ids from byte to short
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int CHECKSUM_BLOCK = 1 << 26;
+
+    // Bytes of the base file the snapshot covers, and the lines in them
+    final long baseLength;
+    final int lineCount;
+
+    private LedgerSnapshot(long baseLength, int lineCount) {
+        this.baseLength = baseLength;
+        this.lineCount = lineCount;
+    }
+
+    // Load the snapshot into an empty store, or return null (leaving the store
+    // empty) if it is missing, corrupt or no longer matches the base file
+    static LedgerSnapshot load(Path snapFile, Path baseFile, ExpenseStore store) {
+        try (FileChannel channel = FileChannel.open(snapFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8 || size > Integer.MAX_VALUE) return null;
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int payload = (int) size - 8;
+            CRC32C crc = new CRC32C();
+            crc.update(buf.duplicate().limit(payload));
+            if (crc.getValue() != buf.getLong(payload)) return null;
+            buf.limit(payload);
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            long baseLength = buf.getLong();
+            long baseCrc = buf.getLong();
+            int lineCount = buf.getInt();
+            int n = buf.getInt();
+            if (Files.size(baseFile) < baseLength || checksum(baseFile, baseLength) != baseCrc) return null;
+
+            short[] categoryIds = readDictionary(buf, Expense.CATEGORY_DICTIONARY);
+            short[] paymentIds = readDictionary(buf, Expense.PAYMENT_DICTIONARY);
+            long[] ids = new long[n];
+            buf.asLongBuffer().get(ids);
+            buf.position(buf.position() + n * 8);
+            int[] days = new int[n];
+            buf.asIntBuffer().get(days);
+            buf.position(buf.position() + n * 4);
+            long[] cents = new long[n];
+            buf.asLongBuffer().get(cents);
+            buf.position(buf.position() + n * 8);
+            short[] categories = new short[n];
+            buf.asShortBuffer().get(categories);
+            buf.position(buf.position() + n * 2);
+            short[] payments = new short[n];
+            buf.asShortBuffer().get(payments);
+            buf.position(buf.position() + n * 2);
+            // Dictionary ids are per process, so map them onto this one's
+            for (int i = 0; i < n; i++) {
+                categories[i] = categoryIds[categories[i] & 0xffff];
+                payments[i] = paymentIds[payments[i] & 0xffff];
+            }
+            StringColumn descriptions = readStrings(buf, n);
+            StringColumn tags = readStrings(buf, n);
+            if (buf.hasRemaining()) return null;
+
+            store.appendAll(new ExpenseColumns(ids, days, cents, categories, payments, descriptions, tags), 0);
+            return new LedgerSnapshot(baseLength, lineCount);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring snapshot " + snapFile + ": " + e);
+            return null;
+        }
+    }
+
+    // Write the given rows as an image of the first baseLength bytes of the
+    // base file. ids replaces the rows' own ids when not null.
+    static void write(Path file, ExpenseColumns columns, int[] rows, long[] ids,
+                      long baseLength, long baseCrc, int lineCount) throws IOException {
+        int n = rows.length;
+        if ((long) n * 8 > Integer.MAX_VALUE) throw new IOException("Too many rows for a snapshot: " + n);
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(baseLength).putLong(baseCrc).putInt(lineCount).putInt(n);
+            put(channel, crc, header);
+            put(channel, crc, dictionary(Expense.CATEGORY_DICTIONARY));
+            put(channel, crc, dictionary(Expense.PAYMENT_DICTIONARY));
+
+            ByteBuffer column = ByteBuffer.allocate(n * 8);
+            for (int i = 0; i < n; i++) column.putLong(ids != null ? ids[i] : columns.getId(rows[i]));
+            put(channel, crc, column);
+            column.clear();
+            for (int row : rows) column.putInt(columns.getEpochDay(row));
+            put(channel, crc, column);
+            column.clear();
+            for (int row : rows) column.putLong(columns.getCents(row));
+            put(channel, crc, column);
+            column.clear();
+            for (int row : rows) column.putShort(columns.getCategoryId(row));
+            for (int row : rows) column.putShort(columns.getPaymentMethodId(row));
+            put(channel, crc, column);
+
+            put(channel, crc, strings(columns.descriptionColumn(), rows));
+            put(channel, crc, strings(columns.tagColumn(), rows));
+
+            ByteBuffer trailer = ByteBuffer.allocate(8).putLong(crc.getValue());
+            trailer.flip();
+            while (trailer.hasRemaining()) channel.write(trailer);
+            channel.force(true);
+        }
+    }
+
+    // CRC32C of the first length bytes of the file
+    static long checksum(Path file, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long pos = 0; pos < length; pos += CHECKSUM_BLOCK) {
+                long block = Math.min(CHECKSUM_BLOCK, length - pos);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, block));
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Length of the file's first size bytes up to and including their last newline
+    static long completeLength(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(8192);
+            long end = Math.min(size, channel.size());
+            while (end > 0) {
+                long start = Math.max(0, end - block.capacity());
+                block.clear().limit((int) (end - start));
+                while (block.hasRemaining()) {
+                    if (channel.read(block, start + block.position()) < 0) break;
+                }
+                for (int i = block.position() - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') return start + i + 1;
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    private static void put(FileChannel channel, CRC32C crc, ByteBuffer section) throws IOException {
+        section.flip();
+        crc.update(section.duplicate());
+        while (section.hasRemaining()) channel.write(section);
+    }
+
+    private static ByteBuffer dictionary(ValueDictionary dictionary) {
+        int count = dictionary.size();
+        byte[][] names = new byte[count][];
+        int bytes = 4;
+        for (int id = 0; id < count; id++) {
+            names[id] = dictionary.valueOf(id).getBytes(StandardCharsets.UTF_8);
+            bytes += 4 + names[id].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(bytes).putInt(count);
+        for (byte[] name : names) buf.putInt(name.length).put(name);
+        return buf;
+    }
+
+    // Maps the file's dictionary ids to this process's
+    private static short[] readDictionary(ByteBuffer buf, ValueDictionary dictionary) {
+        int count = buf.getInt();
+        if (count < 0 || count > ValueDictionary.MAX_VALUES) throw new IllegalStateException("Bad dictionary size " + count);
+        short[] ids = new short[count];
+        for (int id = 0; id < count; id++) {
+            byte[] name = new byte[buf.getInt()];
+            buf.get(name);
+            ids[id] = dictionary.idOf(new String(name, StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+
+    private static ByteBuffer strings(StringColumn column, int[] rows) {
+        long heapBytes = 0;
+        for (int row : rows) heapBytes += column.length(row);
+        long bytes = 4L * (rows.length + 1) + heapBytes;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("String column too large for a snapshot");
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes);
+        int offset = 0;
+        buf.putInt(0);
+        for (int row : rows) buf.putInt(offset += column.length(row));
+        for (int row : rows) column.copyTo(row, buf);
+        return buf;
+    }
+
+    private static StringColumn readStrings(ByteBuffer buf, int n) {
+        int[] offsets = new int[n + 1];
+        buf.asIntBuffer().get(offsets);
+        buf.position(buf.position() + (n + 1) * 4);
+        for (int i = 0; i < n; i++) {
+            if (offsets[i] > offsets[i + 1]) throw new IllegalStateException("Bad string offsets");
+        }
+        if (offsets[0] != 0) throw new IllegalStateException("Bad string offsets");
+        byte[] heap = new byte[offsets[n]];
+        buf.get(heap);
+        return StringColumn.of(heap, offsets, n);
+    }
+}
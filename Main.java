@@ -0,0 +1,25 @@
+import java.util.Arrays;
+import javafx.application.Application;
+
+// Entry point of the jar: "report ..." runs the headless report command,
+// "serve ..." the HTTP API, anything else starts the application. Kept apart
+// from Budgify because the Java launcher insists on the JavaFX runtime for
+// any Application subclass, which a report or server on a machine without a
+// display neither has nor needs.
+public final class Main {
+
+    private Main() {}
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("report")) {
+            System.exit(ReportCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            // Runs on in the server's threads once it is up
+            int status = ApiServer.run(Arrays.copyOfRange(args, 1, args.length));
+            if (status != 0) System.exit(status);
+            return;
+        }
+        Application.launch(Budgify.class, args);
+    }
+}
@@ -0,0 +1,18 @@
+// Formats amounts held in cents without String.format or intermediate objects.
+public final class Money {
+
+    private Money() {}
+
+    // Appends cents as "-1234.50", the same digits String.format("%.2f") produces
+    public static StringBuilder append(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            // Long.MIN_VALUE has no positive counterpart; it is far outside any ledger
+            cents = -cents;
+        }
+        out.append(cents / 100).append('.');
+        int fraction = (int) (cents % 100);
+        if (fraction < 10) out.append('0');
+        return out.append(fraction);
+    }
+}
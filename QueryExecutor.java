@@ -0,0 +1,99 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+// Runs view queries (search, filters, aggregation) off the JavaFX thread.
+//
+// Every submission supersedes the previous one: a query still waiting out its
+// debounce delay is dropped, a running one is interrupted and sees its
+// cancellation flag go up, and a result is only published if no newer query
+// was submitted in the meantime. Results are handed to the publisher, which
+// in the UI is Platform::runLater, together with the query's run time.
+public class QueryExecutor implements AutoCloseable {
+
+    public interface Query<R> {
+        // Should poll cancelled in long loops and give up with a CancellationException
+        R run(BooleanSupplier cancelled) throws Exception;
+    }
+
+    public interface ResultHandler<R> {
+        void accept(R result, long elapsedNanos);
+    }
+
+    private final Executor publisher;
+    private final long debounceMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "query-debounce");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private Future<?> pending;
+    private Future<?> running;
+    private final AtomicLong generation = new AtomicLong();
+    // Latest generation whose result was delivered (or that failed)
+    private volatile long settled;
+
+    public QueryExecutor(Executor publisher, long debounceMillis) {
+        this.publisher = publisher;
+        this.debounceMillis = debounceMillis;
+    }
+
+    // For typing: waits for input to settle before running
+    public <R> void submit(Query<R> query, ResultHandler<R> onResult) {
+        schedule(query, onResult, debounceMillis);
+    }
+
+    // For explicit actions (Apply Filters, reloads, catching up with edits)
+    public <R> void submitNow(Query<R> query, ResultHandler<R> onResult) {
+        schedule(query, onResult, 0);
+    }
+
+    // Whether the latest query has not yet handed its result to the handler
+    public boolean isBusy() {
+        return settled != generation.get();
+    }
+
+    private synchronized <R> void schedule(Query<R> query, ResultHandler<R> onResult, long delayMillis) {
+        long gen = generation.incrementAndGet();
+        if (pending != null) pending.cancel(false);
+        if (running != null) running.cancel(true);
+        pending = null;
+        if (delayMillis > 0) {
+            pending = timer.schedule(() -> start(gen, query, onResult), delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            start(gen, query, onResult);
+        }
+    }
+
+    private synchronized <R> void start(long gen, Query<R> query, ResultHandler<R> onResult) {
+        if (gen != generation.get()) return;
+        BooleanSupplier cancelled = () -> gen != generation.get() || Thread.currentThread().isInterrupted();
+        running = workers.submit(() -> {
+            long started = System.nanoTime();
+            try {
+                R result = query.run(cancelled);
+                long elapsed = System.nanoTime() - started;
+                if (!cancelled.getAsBoolean()) {
+                    publisher.execute(() -> {
+                        if (gen != generation.get()) return;
+                        settled = gen;
+                        onResult.accept(result, elapsed);
+                    });
+                }
+            } catch (CancellationException | InterruptedException e) {
+                // Superseded by a newer query
+            } catch (Exception e) {
+                if (gen == generation.get()) settled = gen;
+                System.err.println("Query failed: " + e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        generation.incrementAndGet();
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+}
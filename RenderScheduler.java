@@ -0,0 +1,77 @@
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ObservableBooleanValue;
+import java.util.*;
+
+// Coalesces view refreshes into at most one per animation pulse.
+//
+// Callers mark views dirty instead of redrawing them; on the next pulse each
+// dirty view that is showing is refreshed once, no matter how many changes
+// arrived in between. Views on hidden tabs stay dirty and are refreshed on
+// the first pulse after they are shown. JavaFX thread only.
+public class RenderScheduler {
+
+    private static final class View {
+        final ObservableBooleanValue showing;
+        final Runnable refresh;
+        boolean dirty = true;
+
+        View(ObservableBooleanValue showing, Runnable refresh) {
+            this.showing = showing;
+            this.refresh = refresh;
+        }
+
+        boolean isShowing() {
+            return showing == null || showing.get();
+        }
+    }
+
+    private final Map<String, View> views = new LinkedHashMap<>();
+    private boolean scheduled;
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            scheduled = false;
+            flush();
+        }
+    };
+
+    // showing is null for views that are always on screen; re-registering a name replaces the view
+    public void register(String name, ObservableBooleanValue showing, Runnable refresh) {
+        View view = new View(showing, refresh);
+        views.put(name, view);
+        if (showing != null) {
+            showing.addListener((obs, wasShowing, isShowing) -> {
+                if (isShowing && view.dirty && views.get(name) == view) schedule();
+            });
+        }
+        schedule();
+    }
+
+    public void invalidate(String name) {
+        View view = views.get(name);
+        if (view == null) return;
+        view.dirty = true;
+        if (view.isShowing()) schedule();
+    }
+
+    public void invalidateAll() {
+        for (String name : views.keySet()) invalidate(name);
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            pulse.start();
+        }
+    }
+
+    private void flush() {
+        for (View view : views.values()) {
+            if (view.dirty && view.isShowing()) {
+                view.dirty = false;
+                view.refresh.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import javax.imageio.ImageIO;
+
+// The category, monthly and trend charts drawn with Java2D into images, so a
+// report needs no display and no JavaFX toolkit. Run with java.awt.headless
+// set. Colours follow the JavaFX charts the application shows.
+public final class ReportCharts {
+
+    private static final Color[] PALETTE = {
+        new Color(0xf3622d), new Color(0xfba71b), new Color(0x57b757), new Color(0x41a9c9),
+        new Color(0x4258c9), new Color(0x9a42c8), new Color(0xc84164), new Color(0x888888),
+        new Color(0x2f8f83), new Color(0xb5a642), new Color(0x6b4f3f),
+    };
+    private static final Color INCOME = new Color(0x57b757), EXPENSE = new Color(0xf3622d), LINE = new Color(0x4258c9);
+    private static final Color BACKGROUND = new Color(0xf5f7fa), GRID = new Color(0xdde1e6), TEXT = new Color(0x333333);
+    private static final int MARGIN = 60;
+
+    private final int width, height;
+
+    public ReportCharts(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    // Expenses by category as a pie, with each slice's share in the legend
+    public void writeCategoryChart(ViewTotals totals, Path file) throws IOException {
+        BufferedImage image = newImage();
+        Graphics2D g = begin(image, "Spending by Category");
+        List<String> names = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        double total = 0;
+        for (String category : Expense.CATEGORIES) {
+            double value = -totals.getCategoryExpense(category);
+            if (totals.hasCategoryExpense(category) && value > 0) {
+                names.add(category);
+                values.add(value);
+                total += value;
+            }
+        }
+        if (total == 0) {
+            empty(g);
+        } else {
+            int diameter = Math.min(width / 2, height - 2 * MARGIN);
+            int x = MARGIN, y = (height - diameter) / 2 + 10;
+            double start = 90;
+            FontMetrics metrics = g.getFontMetrics();
+            int legendX = x + diameter + MARGIN, legendY = y + 10;
+            for (int i = 0; i < names.size(); i++) {
+                double extent = -360 * values.get(i) / total;
+                g.setColor(PALETTE[i % PALETTE.length]);
+                g.fill(new Arc2D.Double(x, y, diameter, diameter, start, extent, Arc2D.PIE));
+                start += extent;
+
+                int rowY = legendY + i * (metrics.getHeight() + 8);
+                g.fillRect(legendX, rowY - metrics.getAscent() + 2, 12, 12);
+                g.setColor(TEXT);
+                g.drawString(String.format("%s  $%,.2f  (%.1f%%)", names.get(i), values.get(i),
+                    100 * values.get(i) / total), legendX + 20, rowY + 1);
+            }
+            g.setColor(TEXT);
+            g.drawString(String.format("Total expenses: $%,.2f", total), legendX,
+                legendY + names.size() * (metrics.getHeight() + 8) + 12);
+        }
+        finish(g, image, file);
+    }
+
+    // Income and expenses side by side for every month with rows
+    public void writeMonthlyChart(ViewTotals totals, Path file) throws IOException {
+        BufferedImage image = newImage();
+        Graphics2D g = begin(image, "Monthly Overview");
+        SortedMap<YearMonth, Double> income = totals.getMonthlyIncome();
+        SortedMap<YearMonth, Double> expense = totals.getMonthlyExpense();
+        SortedSet<YearMonth> months = new TreeSet<>(income.keySet());
+        months.addAll(expense.keySet());
+        if (months.isEmpty()) {
+            empty(g);
+        } else {
+            double max = 0;
+            for (double v : income.values()) max = Math.max(max, v);
+            for (double v : expense.values()) max = Math.max(max, v);
+            double[] ticks = ticks(0, max);
+            double top = ticks[ticks.length - 1];
+            int left = plotLeft(g, ticks), right = width - MARGIN / 2, bottom = height - MARGIN, plotTop = MARGIN;
+            yAxis(g, ticks, left, right, plotTop, bottom, 0, top);
+
+            double slot = (double) (right - left) / months.size();
+            double bar = Math.max(1, slot * 0.4);
+            int labelEvery = Math.max(1, (int) Math.ceil(70 / slot));
+            int i = 0;
+            for (YearMonth month : months) {
+                double x = left + i * slot + slot * 0.1;
+                bar(g, INCOME, x, bar, income.getOrDefault(month, 0.0), top, plotTop, bottom);
+                bar(g, EXPENSE, x + bar, bar, expense.getOrDefault(month, 0.0), top, plotTop, bottom);
+                g.setColor(TEXT);
+                if (i % labelEvery == 0) centered(g, month.toString(), left + i * slot + slot / 2, bottom + 18);
+                i++;
+            }
+            legend(g, new String[] { "Income", "Expenses" }, new Color[] { INCOME, EXPENSE });
+        }
+        finish(g, image, file);
+    }
+
+    // Running balance of the rows, one point per pixel of plot width at most
+    public void writeTrendChart(ViewTotals totals, Path file) throws IOException {
+        BufferedImage image = newImage();
+        Graphics2D g = begin(image, "Spending Trend");
+        TimeSeries series = totals.getRunningBalance();
+        if (series.size() == 0) {
+            empty(g);
+        } else {
+            int right = width - MARGIN / 2, bottom = height - MARGIN, plotTop = MARGIN;
+            int[] points = series.downsample(0, series.size(), right - MARGIN);
+            double min = 0, max = 0;
+            for (int i : points) {
+                min = Math.min(min, series.getY(i));
+                max = Math.max(max, series.getY(i));
+            }
+            double[] ticks = ticks(min, max);
+            double low = ticks[0], high = ticks[ticks.length - 1];
+            int left = plotLeft(g, ticks);
+            yAxis(g, ticks, left, right, plotTop, bottom, low, high);
+
+            double first = series.getX(0), last = series.getX(series.size() - 1);
+            double span = Math.max(1, last - first);
+            Path2D.Double line = new Path2D.Double();
+            for (int i : points) {
+                double x = left + (series.getX(i) - first) / span * (right - left);
+                double y = bottom - (series.getY(i) - low) / (high - low) * (bottom - plotTop);
+                if (line.getCurrentPoint() == null) line.moveTo(x, y);
+                else line.lineTo(x, y);
+            }
+            g.setColor(LINE);
+            g.setStroke(new BasicStroke(2f));
+            g.draw(line);
+            g.setStroke(new BasicStroke(1f));
+
+            g.setColor(TEXT);
+            for (int i = 0; i <= 6; i++) {
+                double day = first + span * i / 6;
+                centered(g, LocalDate.ofEpochDay(Math.round(day)).toString(), left + (right - left) * i / 6.0, bottom + 18);
+            }
+        }
+        finish(g, image, file);
+    }
+
+    private BufferedImage newImage() {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private Graphics2D begin(BufferedImage image, String title) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.setColor(TEXT);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 18));
+        centered(g, title, width / 2.0, 32);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        return g;
+    }
+
+    private void empty(Graphics2D g) {
+        g.setColor(TEXT);
+        centered(g, "No transactions", width / 2.0, height / 2.0);
+    }
+
+    private static void finish(Graphics2D g, BufferedImage image, Path file) throws IOException {
+        g.dispose();
+        if (!ImageIO.write(image, "png", file.toFile())) throw new IOException("No PNG writer available");
+    }
+
+    // Horizontal grid lines and dollar labels at the ticks
+    private static void yAxis(Graphics2D g, double[] ticks, int left, int right, int top, int bottom, double low, double high) {
+        FontMetrics metrics = g.getFontMetrics();
+        for (double tick : ticks) {
+            int y = (int) Math.round(bottom - (tick - low) / (high - low) * (bottom - top));
+            g.setColor(GRID);
+            g.drawLine(left, y, right, y);
+            g.setColor(TEXT);
+            String label = dollars(tick);
+            g.drawString(label, left - 8 - metrics.stringWidth(label), y + metrics.getAscent() / 2 - 1);
+        }
+        g.drawLine(left, bottom, right, bottom);
+    }
+
+    // Left edge of the plot, leaving room for the widest axis label
+    private static int plotLeft(Graphics2D g, double[] ticks) {
+        int widest = 0;
+        for (double tick : ticks) widest = Math.max(widest, g.getFontMetrics().stringWidth(dollars(tick)));
+        return Math.max(MARGIN, widest + 20);
+    }
+
+    private static String dollars(double value) {
+        return String.format(value < 0 ? "-$%,.0f" : "$%,.0f", Math.abs(value));
+    }
+
+    private static void bar(Graphics2D g, Color color, double x, double width, double value, double top, int plotTop, int bottom) {
+        double height = value / top * (bottom - plotTop);
+        g.setColor(color);
+        g.fill(new Rectangle2D.Double(x, bottom - height, width, height));
+    }
+
+    private void legend(Graphics2D g, String[] names, Color[] colors) {
+        FontMetrics metrics = g.getFontMetrics();
+        int x = width - MARGIN / 2;
+        for (int i = names.length - 1; i >= 0; i--) {
+            x -= metrics.stringWidth(names[i]);
+            g.setColor(TEXT);
+            g.drawString(names[i], x, 52);
+            x -= 18;
+            g.setColor(colors[i]);
+            g.fillRect(x, 52 - 10, 12, 12);
+            x -= 16;
+        }
+    }
+
+    // Centred on x, but kept inside the image
+    private void centered(Graphics2D g, String text, double x, double y) {
+        int textWidth = g.getFontMetrics().stringWidth(text);
+        double left = Math.max(4, Math.min(x - textWidth / 2.0, width - 4 - textWidth));
+        g.drawString(text, (float) left, (float) y);
+    }
+
+    // About five round steps (1, 2 or 5 times a power of ten) covering min..max
+    static double[] ticks(double min, double max) {
+        if (max <= min) max = min + 1;
+        double raw = (max - min) / 5;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double step = raw / magnitude <= 1 ? magnitude : raw / magnitude <= 2 ? 2 * magnitude
+            : raw / magnitude <= 5 ? 5 * magnitude : 10 * magnitude;
+        double low = Math.floor(min / step) * step;
+        int count = (int) Math.ceil((max - low) / step - 1e-9) + 1;
+        double[] ticks = new double[count];
+        for (int i = 0; i < count; i++) ticks[i] = low + i * step;
+        return ticks;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// "budgify report": totals of a ledger by category and month, and its
+// running balance, printed as text and drawn as PNG charts without a display.
+//
+//   report [--user=<name> | --file=<ledger.csv>] [--dir=<data dir>] [--db=<jdbc url>]
+//          [--category=<name>] [--from=<yyyy-mm-dd>] [--to=<yyyy-mm-dd>]
+//          [--out=<chart dir>] [--width=<px>] [--height=<px>]
+//
+// The ledger is the user's partition in the data directory (or database),
+// a ledger file given directly, or by default the shared admin ledger. The
+// totals come from one pass over the matching rows, split across cores (or
+// from the database's own aggregates), and the same filter rules as the
+// application's Apply Filters.
+public final class ReportCommand {
+
+    private static final String USAGE = "usage: report [--user=<name> | --file=<ledger.csv>] [--dir=<dir>] [--db=<jdbc url>]"
+        + " [--category=<name>] [--from=<yyyy-mm-dd>] [--to=<yyyy-mm-dd>] [--out=<dir>] [--width=<px>] [--height=<px>]";
+    private static final Set<String> OPTIONS = Set.of("user", "file", "dir", "db", "category", "from", "to", "out", "width", "height");
+
+    private ReportCommand() {}
+
+    // Returns the process exit status: 0 done, 1 failed, 2 bad arguments
+    public static int run(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (name == null || !OPTIONS.contains(name)) return usage("Unknown argument: " + arg);
+            options.put(name, arg.substring(eq + 1));
+        }
+        if (options.containsKey("user") && options.containsKey("file")) return usage("Give --user or --file, not both");
+
+        ExpenseRepository.Filter filter;
+        int width, height;
+        try {
+            String category = options.get("category");
+            if (category != null && Expense.CATEGORY_DICTIONARY.find(category) < 0) {
+                return usage("Unknown category: " + category + " (one of " + String.join(", ", Expense.CATEGORIES) + ")");
+            }
+            LocalDate from = options.containsKey("from") ? LocalDate.parse(options.get("from")) : null;
+            LocalDate to = options.containsKey("to") ? LocalDate.parse(options.get("to")) : null;
+            filter = new ExpenseRepository.Filter(null, category, from, to);
+            width = Integer.parseInt(options.getOrDefault("width", "1000"));
+            height = Integer.parseInt(options.getOrDefault("height", "600"));
+            if (width < 400 || height < 300) return usage("Charts must be at least 400x300");
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return usage(e.getMessage());
+        }
+
+        Path directory = Paths.get(options.getOrDefault("dir", ""));
+        Path out = Paths.get(options.getOrDefault("out", "."));
+        long start = System.nanoTime();
+        try (LedgerEngine engine = LedgerEngine.open(directory, options.get("db"))) {
+            Ledger file = null;
+            ExpenseRepository.Partition partition;
+            String name;
+            if (options.containsKey("file")) {
+                file = LedgerEngine.openFile(Paths.get(options.get("file")), (_, _, _) -> { });
+                partition = file;
+                name = options.get("file");
+            } else {
+                User user = findUser(engine.loadUsers(), options.get("user"));
+                if (user == null) {
+                    System.err.println(options.containsKey("user")
+                        ? "No such user: " + options.get("user") : "No admin account; give --user or --file");
+                    return 1;
+                }
+                partition = engine.open(user, (_, _, _) -> { });
+                name = user.username + " (" + user.role + ")";
+            }
+            try {
+                long loaded = System.nanoTime();
+                ExpenseRepository.Page page = partition.query(filter, null, () -> false);
+                long queried = System.nanoTime();
+
+                Files.createDirectories(out);
+                ReportCharts charts = new ReportCharts(width, height);
+                charts.writeCategoryChart(page.totals(), out.resolve("category_chart.png"));
+                charts.writeMonthlyChart(page.totals(), out.resolve("monthly_chart.png"));
+                charts.writeTrendChart(page.totals(), out.resolve("trend_chart.png"));
+                long drawn = System.nanoTime();
+
+                print(System.out, name, filter, page);
+                System.out.printf("%nCharts: %s, %s, %s%n", out.resolve("category_chart.png"),
+                    out.resolve("monthly_chart.png"), out.resolve("trend_chart.png"));
+                System.out.printf("Load %d ms, totals %d ms, charts %d ms%n", (loaded - start) / 1_000_000,
+                    (queried - loaded) / 1_000_000, (drawn - queried) / 1_000_000);
+            } finally {
+                if (file != null) file.close();
+            }
+            return 0;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Report failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // The named account, or the first admin's (who share the original ledger)
+    private static User findUser(Map<String, User> users, String username) {
+        if (username != null) return users.get(username);
+        return users.values().stream().filter(User::isAdmin).findFirst().orElse(null);
+    }
+
+    private static void print(PrintStream out, String name, ExpenseRepository.Filter filter, ExpenseRepository.Page page) {
+        ViewTotals totals = page.totals();
+        out.println("Ledger: " + name);
+        out.println("Filter: " + (filter.isAll() ? "all transactions"
+            : (filter.category() != null ? filter.category() : "all categories")
+              + ", " + (filter.from() != null ? filter.from() : "start") + " to " + (filter.to() != null ? filter.to() : "end")));
+        out.printf("Transactions: %,d of %,d%n", page.matchedRows(), page.partitionRows());
+        out.printf("Income: $%,.2f  Expenses: $%,.2f  Net: $%,.2f%n",
+            totals.getIncome(), Math.abs(totals.getExpense()), totals.getIncome() + totals.getExpense());
+        out.printf("Balance: opening $%,.2f, closing $%,.2f%n", page.opening() / 100.0, page.closing() / 100.0);
+
+        out.printf("%n%-16s %16s %16s%n", "Category", "Income", "Expenses");
+        for (String category : Expense.CATEGORIES) {
+            if (!totals.hasCategoryIncome(category) && !totals.hasCategoryExpense(category)) continue;
+            out.printf("%-16s %16s %16s%n", category, String.format("%,.2f", totals.getCategoryIncome(category)),
+                String.format("%,.2f", Math.abs(totals.getCategoryExpense(category))));
+        }
+
+        SortedMap<YearMonth, Double> income = totals.getMonthlyIncome();
+        SortedMap<YearMonth, Double> expense = totals.getMonthlyExpense();
+        SortedSet<YearMonth> months = new TreeSet<>(income.keySet());
+        months.addAll(expense.keySet());
+        out.printf("%n%-16s %16s %16s%n", "Month", "Income", "Expenses");
+        for (YearMonth month : months) {
+            out.printf("%-16s %16s %16s%n", month, String.format("%,.2f", income.getOrDefault(month, 0.0)),
+                String.format("%,.2f", expense.getOrDefault(month, 0.0)));
+        }
+    }
+
+    private static int usage(String message) {
+        System.err.println(message);
+        System.err.println(USAGE);
+        return 2;
+    }
+}
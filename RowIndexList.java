@@ -0,0 +1,239 @@
+import javafx.collections.ObservableListBase;
+import java.util.*;
+
+// The rows shown by the transaction tables: an ObservableList of Expense
+// views backed by an int array of row indices into the store's columns.
+// Views are created on demand in get(), so a million-row result costs one
+// int array rather than a million objects.
+//
+// The rows are always kept in the list's order (store order, or the table's
+// sort order with the row index breaking ties). A new result is therefore
+// merged against the current one and only the rows that left or joined are
+// reported, in runs, with the removed rows exposed as lazy views too.
+public final class RowIndexList extends ObservableListBase<Expense> {
+
+    public interface RowComparator {
+        int compare(ExpenseColumns columns, int rowA, int rowB);
+
+        default RowComparator reversed() {
+            return (columns, a, b) -> compare(columns, b, a);
+        }
+
+        default RowComparator thenComparing(RowComparator next) {
+            return (columns, a, b) -> {
+                int c = compare(columns, a, b);
+                return c != 0 ? c : next.compare(columns, a, b);
+            };
+        }
+    }
+
+    private ExpenseColumns columns;
+    private int[] rows = new int[0];
+    private int size;
+    // null for store order
+    private RowComparator order;
+
+    @Override
+    public Expense get(int index) {
+        Objects.checkIndex(index, size);
+        return new Expense(columns, rows[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public RowComparator getOrder() {
+        return order;
+    }
+
+    // Columns the shown rows index into
+    public ExpenseColumns getColumns() {
+        return columns;
+    }
+
+    // The shown rows in list order, as a copy
+    public int[] toRowArray() {
+        return Arrays.copyOf(rows, size);
+    }
+
+    // Sort the given rows (in store order) into a list order; may run off the
+    // JavaFX thread with a snapshot's columns
+    public static int[] sort(int[] rows, ExpenseColumns columns, RowComparator order) {
+        if (order != null) mergeSort(rows, (a, b) -> compare(columns, order, a, b));
+        return rows;
+    }
+
+    // Show these rows of the columns, taking ownership of the array. They must
+    // be in store order, or already sorted with rowsOrder; rows are sorted here
+    // if that is not the list's order.
+    public void setRows(ExpenseColumns newColumns, int[] newRows, RowComparator rowsOrder) {
+        if (rowsOrder != order) {
+            newRows = newRows.clone();
+            if (rowsOrder != null) Arrays.sort(newRows);
+            sort(newRows, newColumns, order);
+        }
+        ExpenseColumns oldColumns = columns;
+        int[] oldRows = rows;
+        int oldSize = size;
+        columns = newColumns;
+        rows = newRows;
+        size = newRows.length;
+
+        beginChange();
+        if (oldColumns != newColumns) {
+            if (oldSize > 0) nextRemove(0, new RowRange(oldColumns, oldRows, 0, oldSize));
+            if (size > 0) nextAdd(0, size);
+        } else {
+            // Walk both lists in order; pos is where the next change lands
+            int i = 0, j = 0, pos = 0;
+            while (i < oldSize || j < size) {
+                int c = i == oldSize ? 1 : j == size ? -1 : compare(columns, order, oldRows[i], newRows[j]);
+                if (c == 0) {
+                    i++;
+                    j++;
+                    pos++;
+                } else if (c < 0) {
+                    int start = i;
+                    while (i < oldSize && (j == size || compare(columns, order, oldRows[i], newRows[j]) < 0)) i++;
+                    nextRemove(pos, new RowRange(oldColumns, oldRows, start, i));
+                } else {
+                    int start = j;
+                    while (j < size && (i == oldSize || compare(columns, order, oldRows[i], newRows[j]) > 0)) j++;
+                    nextAdd(pos, pos + j - start);
+                    pos += j - start;
+                }
+            }
+        }
+        endChange();
+    }
+
+    // Re-sort the shown rows; null restores store order
+    public void setOrder(RowComparator newOrder) {
+        order = newOrder;
+        if (size < 2) return;
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) positions[i] = i;
+        int[] current = rows;
+        mergeSort(positions, (a, b) -> compare(columns, newOrder, current[a], current[b]));
+
+        int[] sorted = new int[size];
+        int[] permutation = new int[size];
+        for (int k = 0; k < size; k++) {
+            sorted[k] = current[positions[k]];
+            permutation[positions[k]] = k;
+        }
+        rows = sorted;
+        beginChange();
+        nextPermutation(0, size, permutation);
+        endChange();
+    }
+
+    // A view just added to the store, placed at its position in the list order
+    public void addRow(Expense expense) {
+        if (expense.getColumns() != columns) return;
+        int row = expense.getRow();
+        int index = -search(row) - 1;
+        if (index < 0) return;
+        if (size == rows.length) rows = Arrays.copyOf(rows, Math.max(16, size * 2));
+        System.arraycopy(rows, index, rows, index + 1, size - index);
+        rows[index] = row;
+        size++;
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    public boolean removeRow(Expense expense) {
+        if (expense.getColumns() != columns) return false;
+        int index = search(expense.getRow());
+        if (index < 0) return false;
+        Expense removed = get(index);
+        System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+        size--;
+        beginChange();
+        nextRemove(index, removed);
+        endChange();
+        return true;
+    }
+
+    private int search(int row) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(columns, order, rows[mid], row);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    // The order, made total by the row index
+    private static int compare(ExpenseColumns columns, RowComparator order, int a, int b) {
+        if (order != null) {
+            int c = order.compare(columns, a, b);
+            if (c != 0) return c;
+        }
+        return Integer.compare(a, b);
+    }
+
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    private static void mergeSort(int[] values, IntComparator comparator) {
+        mergeSort(values, values.clone(), 0, values.length, comparator);
+    }
+
+    // Sorts values[from, to) using buffer, which holds the same elements on entry
+    private static void mergeSort(int[] values, int[] buffer, int from, int to, IntComparator comparator) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int v = values[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(values[j], v) > 0) {
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                values[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // Sort both halves into buffer, then merge them back into values
+        mergeSort(buffer, values, from, mid, comparator);
+        mergeSort(buffer, values, mid, to, comparator);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) values[k++] = comparator.compare(buffer[i], buffer[j]) <= 0 ? buffer[i++] : buffer[j++];
+        while (i < mid) values[k++] = buffer[i++];
+        while (j < to) values[k++] = buffer[j++];
+    }
+
+    // Removed rows handed to listeners, viewed lazily
+    private static final class RowRange extends AbstractList<Expense> {
+        private final ExpenseColumns columns;
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        RowRange(ExpenseColumns columns, int[] rows, int from, int to) {
+            this.columns = columns;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Expense get(int index) {
+            Objects.checkIndex(index, to - from);
+            return new Expense(columns, rows[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.*;
+
+// Lower-cased trigram index over the description and tags of every row, used
+// by the transaction search box. A row matches when its description, category
+// or tags contain the query, exactly as the old full scan did.
+//
+// Each field is indexed with start and end markers, so fields shorter than
+// three characters and queries of one or two characters are covered too.
+// Posting lists hold row indices in ascending order; since rows are
+// append-only the index catches up with new rows on the next query and
+// skips tombstoned ones, and a query that extends the previous one only
+// rechecks the previous result plus rows added since.
+public class SearchIndex {
+
+    private static final char FIELD_START = '\u0002';
+    private static final char FIELD_END = '\u0003';
+
+    private final Map<Long, IntList> postings = new HashMap<>();
+    // Rows per category dictionary id, grown as higher ids turn up; categories
+    // are matched by name, not by trigram
+    private IntList[] categoryRows = new IntList[16];
+    // Store generation the index was built for
+    private ExpenseColumns indexedColumns;
+    private int indexedRows;
+
+    // Last answered query, for refinement
+    private String lastQuery;
+    private int[] lastResult;
+    private int lastRowCount;
+
+    // Live rows of the snapshot matching the query, in store order. Safe to call
+    // off the JavaFX thread; concurrent callers are serialized.
+    public synchronized int[] search(String query, ExpenseStore.Snapshot snapshot) {
+        query = query.toLowerCase(Locale.ROOT);
+        if (query.isEmpty()) return snapshot.liveRows();
+        catchUp(snapshot);
+        int rowCount = snapshot.rowCount();
+
+        IntList result = new IntList();
+        if (lastQuery != null && query.contains(lastQuery) && lastRowCount <= rowCount) {
+            // Refine: anything matching the longer query matched the shorter one
+            for (int row : lastResult) verify(snapshot, row, query, result);
+            for (int row = lastRowCount; row < rowCount; row++) verify(snapshot, row, query, result);
+        } else {
+            for (int row : candidates(query)) verify(snapshot, row, query, result);
+            result = mergeCategoryMatches(snapshot, query, result);
+        }
+
+        lastQuery = query;
+        lastResult = result.toArray();
+        lastRowCount = rowCount;
+        return lastResult;
+    }
+
+    // Same rule as search(), for one row; the query must already be lower-cased
+    public static boolean matches(Expense e, String query) {
+        return matches(e.getColumns(), e.getRow(), query);
+    }
+
+    private static void verify(ExpenseStore.Snapshot snapshot, int row, String query, IntList result) {
+        if (snapshot.isLive(row) && matches(snapshot.getColumns(), row, query)) result.add(row);
+    }
+
+    private static boolean matches(ExpenseColumns columns, int row, String query) {
+        return columns.getDescription(row).toLowerCase(Locale.ROOT).contains(query)
+            || Expense.CATEGORY_DICTIONARY.valueOf(columns.getCategoryId(row)).toLowerCase(Locale.ROOT).contains(query)
+            || columns.getTags(row).toLowerCase(Locale.ROOT).contains(query);
+    }
+
+    // Rows whose description or tags contain every trigram of the (padded) query
+    private int[] candidates(String query) {
+        List<IntList> lists = new ArrayList<>();
+        if (query.length() >= 3) {
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                IntList list = postings.get(key(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2)));
+                if (list == null) return new int[0];
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(IntList::size));
+            int[] result = lists.get(0).toArray();
+            for (int i = 1; i < lists.size() && result.length > 0; i++) {
+                result = intersect(result, lists.get(i));
+            }
+            return result;
+        }
+        // One or two characters: union of every trigram containing them
+        for (Map.Entry<Long, IntList> entry : postings.entrySet()) {
+            if (gramContains(entry.getKey(), query)) lists.add(entry.getValue());
+        }
+        return union(lists);
+    }
+
+    // Add the live rows of every category whose name contains the query
+    private IntList mergeCategoryMatches(ExpenseStore.Snapshot snapshot, String query, IntList textMatches) {
+        List<IntList> lists = new ArrayList<>();
+        for (int id = 0; id < categoryRows.length; id++) {
+            if (categoryRows[id] != null
+                    && Expense.CATEGORY_DICTIONARY.valueOf(id).toLowerCase(Locale.ROOT).contains(query)) {
+                lists.add(categoryRows[id]);
+            }
+        }
+        if (lists.isEmpty()) return textMatches;
+        lists.add(textMatches);
+        IntList merged = new IntList();
+        for (int row : union(lists)) {
+            if (snapshot.isLive(row)) merged.add(row);
+        }
+        return merged;
+    }
+
+    private static int[] intersect(int[] a, IntList b) {
+        int[] out = new int[Math.min(a.length, b.size())];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length && j < b.size()) {
+            int x = a[i], y = b.get(j);
+            if (x < y) i++;
+            else if (x > y) j++;
+            else {
+                out[n++] = x;
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] union(List<IntList> lists) {
+        BitSet rows = new BitSet();
+        for (IntList list : lists) {
+            for (int i = 0; i < list.size(); i++) rows.set(list.get(i));
+        }
+        return rows.stream().toArray();
+    }
+
+    // Index rows appended since the last query; start over if the store was reloaded
+    private void catchUp(ExpenseStore.Snapshot snapshot) {
+        ExpenseColumns columns = snapshot.getColumns();
+        int rowCount = snapshot.rowCount();
+        if (snapshot.getOwner() != indexedColumns) {
+            postings.clear();
+            Arrays.fill(categoryRows, null);
+            indexedColumns = snapshot.getOwner();
+            indexedRows = 0;
+            lastQuery = null;
+        }
+        for (int row = indexedRows; row < rowCount; row++) {
+            index(columns.getDescription(row), row);
+            index(columns.getTags(row), row);
+            int category = columns.getCategoryId(row) & 0xffff;
+            if (category >= categoryRows.length) {
+                categoryRows = Arrays.copyOf(categoryRows, Math.max(category + 1, categoryRows.length * 2));
+            }
+            if (categoryRows[category] == null) categoryRows[category] = new IntList();
+            categoryRows[category].add(row);
+        }
+        // A query may run on an older snapshot than the previous one
+        indexedRows = Math.max(indexedRows, rowCount);
+    }
+
+    private void index(String field, int row) {
+        if (field.isEmpty()) return;
+        String text = FIELD_START + field.toLowerCase(Locale.ROOT) + FIELD_END;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            IntList list = postings.computeIfAbsent(key(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)),
+                k -> new IntList(4));
+            if (list.isEmpty() || list.last() != row) list.add(row);
+        }
+    }
+
+    private static long key(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    // Whether a one or two character query occurs within the trigram
+    private static boolean gramContains(long key, String query) {
+        char a = (char) (key >>> 32), b = (char) (key >>> 16), c = (char) key;
+        char q0 = query.charAt(0);
+        if (query.length() == 1) return a == q0 || b == q0 || c == q0;
+        char q1 = query.charAt(1);
+        return (a == q0 && b == q1) || (b == q0 && c == q1);
+    }
+}
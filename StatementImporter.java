@@ -0,0 +1,477 @@
+import java.io.*;
+import java.math.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.time.temporal.ChronoField;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// Reads bank statements (CSV, OFX, QIF) into detached rows for one batched
+// Ledger.addAll().
+//
+// Files are parsed as a stream into batches of raw field values, and each
+// full batch is validated together: dates and amounts are parsed, category
+// and payment method are checked against Expense.CATEGORIES and
+// Expense.PAYMENT_METHODS, and rows the ledger already holds are dropped by a
+// hash of date, amount and description. Each existing row absorbs at most one
+// statement row, so two identical purchases on one day still import once the
+// ledger only has one of them.
+//
+// CSV columns are found from the header row unless a ColumnMapping is given.
+// A category or payment method from a mapped CSV column must be one of ours;
+// OFX and QIF carry the bank's own categories, which fall back to "Other".
+// Commas and line breaks in text become spaces, since the ledger's CSV layout
+// has no quoting.
+public final class StatementImporter {
+
+    private static final int BATCH_SIZE = 4096;
+    // Rejected rows kept for the summary; all of them are logged
+    private static final int MAX_REPORTED = 100;
+    private static final String FALLBACK_CATEGORY = "Other";
+
+    public enum Format {
+        CSV, OFX, QIF;
+
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".ofx") || name.endsWith(".qfx")) return OFX;
+            if (name.endsWith(".qif")) return QIF;
+            return CSV;
+        }
+    }
+
+    // Zero-based CSV column of each field, -1 where the file has none. The
+    // amount is either one signed column or a debit and a credit column.
+    public static final class ColumnMapping {
+        int date = -1, amount = -1, debit = -1, credit = -1;
+        int description = -1, category = -1, paymentMethod = -1, tags = -1;
+
+        // Matches header names against common bank export spellings
+        public static ColumnMapping fromHeader(String[] header) {
+            ColumnMapping mapping = new ColumnMapping();
+            for (int i = header.length - 1; i >= 0; i--) {
+                switch (header[i].toLowerCase(Locale.ROOT).replaceAll("[^a-z ]", "").trim()) {
+                    case "date", "posted", "posting date", "transaction date", "trans date", "booking date", "value date" -> mapping.date = i;
+                    case "amount", "amt", "transaction amount", "value" -> mapping.amount = i;
+                    case "debit", "withdrawal", "withdrawals", "money out", "paid out" -> mapping.debit = i;
+                    case "credit", "deposit", "deposits", "money in", "paid in" -> mapping.credit = i;
+                    case "description", "payee", "name", "memo", "details", "narrative", "merchant" -> mapping.description = i;
+                    case "category" -> mapping.category = i;
+                    case "payment", "payment method", "method" -> mapping.paymentMethod = i;
+                    case "tags", "tag", "labels", "notes" -> mapping.tags = i;
+                    default -> { }
+                }
+            }
+            return mapping;
+        }
+
+        public boolean isComplete() {
+            return date >= 0 && (amount >= 0 || debit >= 0 || credit >= 0);
+        }
+    }
+
+    public interface Progress {
+        void read(long bytes, long totalBytes);
+    }
+
+    public static final class Result {
+        private final ExpenseColumns rows = new ExpenseColumns(1024);
+        private final List<String> rejected = new ArrayList<>();
+        private int rejectedCount;
+        private int duplicates;
+
+        // Accepted rows, ready for Ledger.addAll()
+        public ExpenseColumns getRows() { return rows; }
+        public int getDuplicates() { return duplicates; }
+        public int getRejectedCount() { return rejectedCount; }
+        // "line N: reason" for the first rejected rows
+        public List<String> getRejected() { return rejected; }
+
+        private void reject(int line, String reason) {
+            rejectedCount++;
+            System.err.println("Import: rejected line " + line + ": " + reason);
+            if (rejected.size() < MAX_REPORTED) rejected.add("line " + line + ": " + reason);
+        }
+    }
+
+    private static final Map<String, String> CATEGORY_NAMES = names(Expense.CATEGORIES);
+    private static final Map<String, String> PAYMENT_NAMES = names(Expense.PAYMENT_METHODS);
+
+    private static Map<String, String> names(String[] values) {
+        Map<String, String> map = new HashMap<>();
+        for (String value : values) map.put(value.toLowerCase(Locale.ROOT), value);
+        return map;
+    }
+
+    private StatementImporter() {}
+
+    // The first line of a CSV file split into fields, for building a mapping
+    public static String[] readHeader(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) return new String[0];
+            line = stripBom(line);
+            return splitCsv(line, delimiterOf(line)).toArray(new String[0]);
+        }
+    }
+
+    // Parse and validate the statement. existing is the ledger to check for
+    // duplicates; mapping may be null to read it from the CSV header, and
+    // defaultPaymentMethod is used where the file names none.
+    public static Result read(Path file, Format format, ColumnMapping mapping, String defaultPaymentMethod,
+                              ExpenseStore.Snapshot existing, BooleanSupplier cancelled,
+                              Progress progress) throws IOException {
+        Validator validator = new Validator(existing, defaultPaymentMethod, cancelled);
+        long total = Files.size(file);
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            validator.onBatch = () -> progress.read(in.count, total);
+            switch (format) {
+                case CSV -> readCsv(reader, mapping, validator);
+                case OFX -> readOfx(reader, validator);
+                case QIF -> readQif(reader, validator);
+            }
+            validator.flush();
+            progress.read(total, total);
+        }
+        return validator.result;
+    }
+
+    private static void readCsv(BufferedReader reader, ColumnMapping mapping, Validator out) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return;
+        line = stripBom(line);
+        char delimiter = delimiterOf(line);
+        if (mapping == null) mapping = ColumnMapping.fromHeader(splitCsv(line, delimiter).toArray(new String[0]));
+        if (!mapping.isComplete()) throw new IOException("No date and amount columns found in the header");
+
+        out.strict = true;
+        List<String> fields = new ArrayList<>();
+        int lineNum = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNum++;
+            if (line.isBlank()) continue;
+            fields.clear();
+            splitCsv(line, delimiter, fields);
+            String amount = field(fields, mapping.amount);
+            if (amount.isEmpty()) {
+                // Separate columns: money out is negative
+                String debit = field(fields, mapping.debit).replace("-", "");
+                String credit = field(fields, mapping.credit);
+                amount = !debit.isEmpty() ? "-" + debit : credit;
+            }
+            out.add(lineNum, field(fields, mapping.date), amount, field(fields, mapping.description),
+                field(fields, mapping.category), field(fields, mapping.paymentMethod), field(fields, mapping.tags));
+        }
+    }
+
+    // SGML (1.x) or XML (2.x) OFX: tags are scanned as a stream, closing tags optional
+    private static void readOfx(BufferedReader reader, Validator out) throws IOException {
+        Map<String, String> txn = null;
+        StringBuilder tag = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+        int c = reader.read();
+        int record = 0;
+        while (c >= 0) {
+            if (c != '<') {
+                c = reader.read();
+                continue;
+            }
+            tag.setLength(0);
+            while ((c = reader.read()) >= 0 && c != '>') tag.append((char) c);
+            value.setLength(0);
+            while ((c = reader.read()) >= 0 && c != '<') value.append((char) c);
+            String name = tag.toString().trim().toUpperCase(Locale.ROOT);
+            if (name.equals("STMTTRN")) {
+                txn = new HashMap<>();
+            } else if (name.equals("/STMTTRN") && txn != null) {
+                record++;
+                String date = txn.getOrDefault("DTPOSTED", "");
+                String description = txn.getOrDefault("NAME", txn.getOrDefault("PAYEE", txn.getOrDefault("MEMO", "")));
+                String payment = switch (txn.getOrDefault("TRNTYPE", "").toUpperCase(Locale.ROOT)) {
+                    case "ATM", "CASH" -> "Cash";
+                    case "POS", "DEBIT" -> "Debit Card";
+                    case "XFER", "DIRECTDEP", "DIRECTDEBIT", "PAYMENT" -> "Bank Transfer";
+                    default -> "";
+                };
+                out.add(record, date.length() >= 8 ? date.substring(0, 8) : date, txn.getOrDefault("TRNAMT", ""),
+                    description, "", payment, "");
+                txn = null;
+            } else if (txn != null && !name.startsWith("/")) {
+                txn.put(name, value.toString().trim());
+            }
+        }
+    }
+
+    private static void readQif(BufferedReader reader, Validator out) throws IOException {
+        String date = "", amount = "", payee = "", memo = "", category = "";
+        int record = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '!') continue;
+            String value = line.substring(1).trim();
+            switch (line.charAt(0)) {
+                case 'D' -> date = value;
+                case 'T', 'U' -> amount = value;
+                case 'P' -> payee = value;
+                case 'M' -> memo = value;
+                // "Groceries:Food" or a transfer "[Savings]"
+                case 'L' -> category = value.startsWith("[") ? "" : value.split(":", 2)[0];
+                case '^' -> {
+                    record++;
+                    out.add(record, date, amount, payee.isEmpty() ? memo : payee, category, "", "");
+                    date = amount = payee = memo = category = "";
+                }
+                default -> { }
+            }
+        }
+    }
+
+    // Validates raw records a batch at a time into the result
+    private static final class Validator {
+        final Result result = new Result();
+        final String defaultPaymentMethod;
+        final BooleanSupplier cancelled;
+        // Counts of (date, amount, description) keys in the ledger not yet matched
+        final Map<Long, Integer> existing = new HashMap<>();
+        final DateParser dates = new DateParser();
+        // Mapped CSV columns must hold our names; otherwise unknown names fall back
+        boolean strict;
+        Runnable onBatch = () -> { };
+
+        int size;
+        final int[] lines = new int[BATCH_SIZE];
+        final String[][] fields = new String[6][BATCH_SIZE];
+
+        Validator(ExpenseStore.Snapshot snapshot, String defaultPaymentMethod, BooleanSupplier cancelled) {
+            this.defaultPaymentMethod = defaultPaymentMethod;
+            this.cancelled = cancelled;
+            ExpenseColumns columns = snapshot.getColumns();
+            StringColumn descriptions = columns.descriptionColumn();
+            for (int row : snapshot.liveRows()) {
+                existing.merge(key(columns.getEpochDay(row), columns.getCents(row), descriptions.hash(row)), 1, Integer::sum);
+            }
+        }
+
+        void add(int line, String date, String amount, String description, String category, String payment, String tags) {
+            lines[size] = line;
+            fields[0][size] = date;
+            fields[1][size] = amount;
+            fields[2][size] = description;
+            fields[3][size] = category;
+            fields[4][size] = payment;
+            fields[5][size] = tags;
+            if (++size == BATCH_SIZE) flush();
+        }
+
+        void flush() {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            ExpenseColumns rows = result.rows;
+            for (int i = 0; i < size; i++) {
+                int line = lines[i];
+                int epochDay = dates.parse(fields[0][i]);
+                if (epochDay == Integer.MIN_VALUE) {
+                    result.reject(line, "unreadable or out-of-range date '" + fields[0][i] + "'");
+                    continue;
+                }
+                long cents = parseCents(fields[1][i]);
+                if (cents == Long.MIN_VALUE) {
+                    result.reject(line, "unreadable amount '" + fields[1][i] + "'");
+                    continue;
+                }
+                String category = lookup(CATEGORY_NAMES, fields[3][i], FALLBACK_CATEGORY);
+                if (category == null) {
+                    result.reject(line, "unknown category '" + fields[3][i] + "'");
+                    continue;
+                }
+                String payment = lookup(PAYMENT_NAMES, fields[4][i], defaultPaymentMethod);
+                if (payment == null) {
+                    result.reject(line, "unknown payment method '" + fields[4][i] + "'");
+                    continue;
+                }
+                String description = clean(fields[2][i]);
+                byte[] text = description.getBytes(StandardCharsets.UTF_8);
+                long key = key(epochDay, cents, StringColumn.hash(text, 0, text.length));
+                Integer unmatched = existing.get(key);
+                if (unmatched != null) {
+                    if (unmatched == 1) existing.remove(key);
+                    else existing.put(key, unmatched - 1);
+                    result.duplicates++;
+                    continue;
+                }
+                rows.add(0, epochDay, cents, Expense.CATEGORY_DICTIONARY.idOf(category),
+                    Expense.PAYMENT_DICTIONARY.idOf(payment), description, clean(fields[5][i]));
+            }
+            size = 0;
+            onBatch.run();
+        }
+
+        // A blank value takes the default; an unknown one is rejected (null) in strict mode
+        private String lookup(Map<String, String> names, String value, String fallback) {
+            if (value.isBlank()) return fallback;
+            String name = names.get(value.trim().toLowerCase(Locale.ROOT));
+            return name != null ? name : strict ? null : fallback;
+        }
+    }
+
+    private static long key(int epochDay, long cents, long textHash) {
+        long h = textHash;
+        h = h * 0x9E3779B97F4A7C15L + epochDay;
+        h = h * 0x9E3779B97F4A7C15L + cents;
+        return h ^ (h >>> 29);
+    }
+
+    // Formats seen in bank exports; the one that last worked is tried first
+    private static final class DateParser {
+        private static final DateTimeFormatter[] FORMATS = {
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            strict(DateTimeFormatter.ofPattern("M/d/uuuu")),
+            strict(new DateTimeFormatterBuilder().appendPattern("M/d/")
+                .appendValueReduced(ChronoField.YEAR, 2, 2, 2000).toFormatter()),
+            strict(DateTimeFormatter.ofPattern("uuuuMMdd")),
+            strict(DateTimeFormatter.ofPattern("d.M.uuuu")),
+            strict(DateTimeFormatter.ofPattern("uuuu/M/d")),
+            strict(DateTimeFormatter.ofPattern("d MMM uuuu", Locale.ENGLISH)),
+            strict(DateTimeFormatter.ofPattern("MMM d, uuuu", Locale.ENGLISH)),
+        };
+        private int last;
+
+        // No rolling 2/30 over into March
+        private static DateTimeFormatter strict(DateTimeFormatter format) {
+            return format.withResolverStyle(ResolverStyle.STRICT);
+        }
+
+        // Epoch day, or Integer.MIN_VALUE if no format fits or the date is
+        // outside the range Expense supports
+        int parse(String text) {
+            // QIF writes 2000s years as 1/15'24
+            text = text.trim().replace('\'', '/');
+            if (text.isEmpty()) return Integer.MIN_VALUE;
+            for (int i = 0; i < FORMATS.length; i++) {
+                int f = (last + i) % FORMATS.length;
+                try {
+                    long day = LocalDate.parse(text, FORMATS[f]).toEpochDay();
+                    last = f;
+                    return Expense.isSupportedDay(day) ? (int) day : Integer.MIN_VALUE;
+                } catch (DateTimeParseException e) {
+                    // Try the next format
+                }
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    // "$1,234.50", "-12.00", "(12.00)" or "12.00 DR"; Long.MIN_VALUE if unreadable
+    static long parseCents(String text) {
+        String s = text.trim();
+        boolean negative = false;
+        if (s.startsWith("(") && s.endsWith(")")) {
+            negative = true;
+            s = s.substring(1, s.length() - 1);
+        }
+        String upper = s.toUpperCase(Locale.ROOT);
+        if (upper.endsWith("DR") || upper.endsWith("CR")) {
+            negative ^= upper.endsWith("DR");
+            s = s.substring(0, s.length() - 2);
+        }
+        StringBuilder digits = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+') digits.append(c);
+            else if (c != ',' && c != ' ' && "$\u20ac\u00a3\u00a5".indexOf(c) < 0) return Long.MIN_VALUE;
+        }
+        if (digits.length() == 0) return Long.MIN_VALUE;
+        try {
+            long cents = new BigDecimal(digits.toString()).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+            return negative ? -cents : cents;
+        } catch (ArithmeticException | NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static String clean(String text) {
+        text = text.trim();
+        if (text.indexOf(',') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) return text;
+        return text.replace(',', ' ').replace('\n', ' ').replace('\r', ' ').trim();
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : "";
+    }
+
+    private static String stripBom(String line) {
+        return line.startsWith("\uFEFF") ? line.substring(1) : line;
+    }
+
+    // Whichever of comma, semicolon and tab the header uses most
+    private static char delimiterOf(String header) {
+        char best = ',';
+        long bestCount = header.chars().filter(c -> c == ',').count();
+        for (char candidate : new char[] { ';', '\t' }) {
+            long count = header.chars().filter(c -> c == candidate).count();
+            if (count > bestCount) {
+                best = candidate;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private static List<String> splitCsv(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        splitCsv(line, delimiter, fields);
+        return fields;
+    }
+
+    // One CSV record with RFC 4180 quoting ("a ""b""", c)
+    private static void splitCsv(String line, char delimiter, List<String> out) {
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                out.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        out.add(field.toString().trim());
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Append-only column of strings stored as UTF-8 in one shared byte heap with
+// an offset per row, instead of one String object (and its array) per row.
+public final class StringColumn {
+
+    private byte[] heap;
+    private int[] offsets;
+    private int size;
+
+    public StringColumn() {
+        this(16);
+    }
+
+    public StringColumn(int capacity) {
+        heap = new byte[Math.max(64, capacity * 16)];
+        offsets = new int[capacity + 1];
+    }
+
+    private StringColumn(byte[] heap, int[] offsets, int size) {
+        this.heap = heap;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    // Wraps a heap and offsets read back from a ledger snapshot; offsets[0] is 0
+    static StringColumn of(byte[] heap, int[] offsets, int size) {
+        return new StringColumn(heap, offsets, size);
+    }
+
+    public int size() { return size; }
+
+    public void add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        add(bytes, 0, bytes.length);
+    }
+
+    public void add(byte[] src, int offset, int length) {
+        int start = reserve(length);
+        System.arraycopy(src, offset, heap, start, length);
+    }
+
+    public void add(ByteBuffer src, int offset, int length) {
+        int start = reserve(length);
+        src.get(offset, heap, start, length);
+    }
+
+    // Copy one row of another column without decoding it
+    public void add(StringColumn src, int row) {
+        int start = src.offsets[row];
+        add(src.heap, start, src.offsets[row + 1] - start);
+    }
+
+    private int reserve(int length) {
+        if (size + 1 == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        int start = offsets[size];
+        long needed = (long) start + length;
+        if (needed > heap.length) {
+            if (needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("String column exceeds 2GB");
+            heap = Arrays.copyOf(heap, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, heap.length * 2L)));
+        }
+        offsets[++size] = start + length;
+        return start;
+    }
+
+    public String get(int row) {
+        int start = offsets[row];
+        return new String(heap, start, offsets[row + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    // Orders rows by their UTF-8 bytes (code point order) without decoding them
+    public static int compare(StringColumn a, int rowA, StringColumn b, int rowB) {
+        int i = a.offsets[rowA], endA = a.offsets[rowA + 1];
+        int j = b.offsets[rowB], endB = b.offsets[rowB + 1];
+        for (; i < endA && j < endB; i++, j++) {
+            int c = (a.heap[i] & 0xff) - (b.heap[j] & 0xff);
+            if (c != 0) return c;
+        }
+        return (endA - i) - (endB - j);
+    }
+
+    public int length(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    // 64-bit FNV-1a of one row's UTF-8 bytes
+    long hash(int row) {
+        return hash(heap, offsets[row], length(row));
+    }
+
+    static long hash(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        return h;
+    }
+
+    // Copy one row's UTF-8 bytes into the buffer
+    void copyTo(int row, ByteBuffer dst) {
+        dst.put(heap, offsets[row], length(row));
+    }
+
+    // Shares the current arrays; rows below size() never change afterwards
+    public StringColumn snapshot() {
+        return new StringColumn(heap, offsets, size);
+    }
+}
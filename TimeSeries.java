@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+// A series of (x, y) points with ascending x, held in primitive arrays, plus
+// Largest-Triangle-Three-Buckets downsampling. LTTB keeps the first and last
+// point and, per bucket, the point forming the largest triangle with the
+// previously kept point and the next bucket's average, so peaks and dips
+// survive while the point count drops to about what the chart can draw.
+public final class TimeSeries {
+
+    private final double[] x;
+    private final double[] y;
+
+    public TimeSeries(double[] x, double[] y) {
+        if (x.length != y.length) throw new IllegalArgumentException("x and y differ in length");
+        this.x = x;
+        this.y = y;
+    }
+
+    public int size() { return x.length; }
+    public double getX(int i) { return x[i]; }
+    public double getY(int i) { return y[i]; }
+
+    // Index of the first point with x >= value (size() if none)
+    public int lowerIndex(double value) {
+        int i = Arrays.binarySearch(x, value);
+        if (i < 0) return -i - 1;
+        while (i > 0 && x[i - 1] == value) i--;
+        return i;
+    }
+
+    // Indices of at most threshold points of from..to (exclusive) chosen by LTTB
+    public int[] downsample(int from, int to, int threshold) {
+        int n = to - from;
+        if (n <= 0) return new int[0];
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = from + i;
+            return all;
+        }
+
+        int[] picked = new int[threshold];
+        picked[0] = from;
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int a = from;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket (the last point for the final bucket)
+            int avgStart = from + (int) ((bucket + 1) * bucketSize) + 1;
+            int avgEnd = Math.min(from + (int) ((bucket + 2) * bucketSize) + 1, to);
+            if (avgStart >= avgEnd) {
+                avgStart = to - 1;
+                avgEnd = to;
+            }
+            double avgX = 0, avgY = 0;
+            for (int i = avgStart; i < avgEnd; i++) {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            avgX /= avgEnd - avgStart;
+            avgY /= avgEnd - avgStart;
+
+            int rangeStart = from + (int) (bucket * bucketSize) + 1;
+            int rangeEnd = Math.min(from + (int) ((bucket + 1) * bucketSize) + 1, to - 1);
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                double area = Math.abs((x[a] - avgX) * (y[i] - y[a]) - (x[a] - x[i]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            picked[bucket + 1] = next;
+            a = next;
+        }
+        picked[threshold - 1] = to - 1;
+        return picked;
+    }
+}
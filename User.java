@@ -0,0 +1,18 @@
+// An account that can log in; role is "admin" or "user"
+public final class User {
+    final String username;
+    final String password;
+    final String role;
+
+    public User(String username, String password, String role) {
+        this.username = username;
+        this.password = password;
+        this.role = role;
+    }
+
+    public String getUsername() { return username; }
+
+    public String getRole() { return role; }
+
+    public boolean isAdmin() { return "admin".equals(role); }
+}
@@ -0,0 +1,60 @@
+import java.util.*;
+
+// Maps a small set of repeated values (categories, payment methods) to short
+// ids so the columnar store keeps two bytes per row instead of a String.
+// Ids are stable for the life of the process; new values are added on demand.
+// Once MAX_VALUES values exist, further new ones map to the overflow value and
+// are counted, so a ledger with too many distinct values still loads.
+public final class ValueDictionary {
+
+    static final int MAX_VALUES = 1 << 16;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private volatile String[] values = new String[0];
+    private final short overflowId;
+    private long overflowed;
+
+    // overflow takes the values past MAX_VALUES
+    public ValueDictionary(String overflow, String... seed) {
+        for (String value : seed) idOf(value);
+        overflowId = idOf(overflow);
+    }
+
+    public synchronized short idOf(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            if (ids.size() == MAX_VALUES) {
+                if (overflowed++ == 0) {
+                    System.err.println("More than " + MAX_VALUES + " distinct values; storing the rest as "
+                        + valueOf(overflowId));
+                }
+                return overflowId;
+            }
+            id = ids.size();
+            ids.put(value, id);
+            String[] grown = Arrays.copyOf(values, id + 1);
+            grown[id] = value;
+            values = grown;
+        }
+        return (short) (int) id;
+    }
+
+    // Lookups of new values that were mapped to the overflow value
+    public synchronized long overflowed() {
+        return overflowed;
+    }
+
+    // -1 if the value has never been seen
+    public synchronized int find(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public String valueOf(int id) {
+        return values[id & 0xffff];
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
@@ -0,0 +1,236 @@
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Running aggregates over the rows currently shown in the views. Kept up to
+// date one row at a time so the dashboard and charts never rescan the ledger.
+// Sums are kept in cents so removing a row restores the exact previous total,
+// and counts tell when a bucket's last row is gone.
+public class ViewTotals {
+
+    // Per bucket: [incomeSum, expenseSum, incomeCount, expenseCount]
+    private static final int INCOME = 0, EXPENSE = 1, INCOME_COUNT = 2, EXPENSE_COUNT = 3;
+    // Rebuilds over more rows than this are split across the common pool
+    private static final int PARALLEL_ROWS = 1 << 17;
+
+    private long income;
+    private long expense;
+    private final Map<Short, long[]> byCategory = new HashMap<>();
+    // Keyed by year * 12 + month - 1
+    private final TreeMap<Integer, long[]> byMonth = new TreeMap<>();
+    // Per epoch day: [net, count]
+    private final TreeMap<Integer, long[]> byDay = new TreeMap<>();
+
+    public void clear() {
+        income = 0;
+        expense = 0;
+        byCategory.clear();
+        byMonth.clear();
+        byDay.clear();
+    }
+
+    // Totals of the given snapshot rows; runs off the JavaFX thread and gives up
+    // with a CancellationException once the query is superseded
+    public void rebuild(ExpenseStore.Snapshot snapshot, int[] rows, BooleanSupplier cancelled) {
+        rebuild(snapshot, rows, null, cancelled);
+    }
+
+    // As above, but when the rows are exactly the slice the sums come from the
+    // aggregate cube and only the per-day buckets are built from the rows.
+    // Large row sets are summed in parallel, one partial total per range of
+    // rows, and merged; sums are exact, so the result does not depend on the split.
+    public void rebuild(ExpenseStore.Snapshot snapshot, int[] rows, AggregateCube.Slice slice, BooleanSupplier cancelled) {
+        clear();
+        if (slice != null) addCube(snapshot.getCube(), slice);
+        ExpenseColumns columns = snapshot.getColumns();
+        if (rows.length <= PARALLEL_ROWS) addRows(columns, rows, 0, rows.length, slice == null, cancelled);
+        else merge(new RangeTotals(columns, rows, 0, rows.length, slice == null, cancelled).invoke());
+    }
+
+    private void addRows(ExpenseColumns columns, int[] rows, int from, int to, boolean sums, BooleanSupplier cancelled) {
+        for (int i = from; i < to; i++) {
+            if (((i - from) & 0xffff) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            int row = rows[i];
+            long amount = columns.getCents(row);
+            if (sums) addSums(AggregateCube.monthOf(columns.getEpochDay(row)), columns.getCategoryId(row), amount, 1);
+            addDay(columns.getEpochDay(row), amount, 1);
+        }
+    }
+
+    // Add another set of totals to these
+    public void merge(ViewTotals other) {
+        income += other.income;
+        expense += other.expense;
+        other.byCategory.forEach((id, bucket) -> add(byCategory.computeIfAbsent(id, k -> new long[4]), bucket));
+        other.byMonth.forEach((month, bucket) -> add(byMonth.computeIfAbsent(month, k -> new long[4]), bucket));
+        other.byDay.forEach((day, bucket) -> add(byDay.computeIfAbsent(day, k -> new long[2]), bucket));
+    }
+
+    private static void add(long[] bucket, long[] other) {
+        for (int i = 0; i < bucket.length; i++) bucket[i] += other[i];
+    }
+
+    // Totals of rows[from, to), halved until a piece is small enough to sum directly
+    private static final class RangeTotals extends RecursiveTask<ViewTotals> {
+        private final ExpenseColumns columns;
+        private final int[] rows;
+        private final int from, to;
+        private final boolean sums;
+        private final BooleanSupplier cancelled;
+
+        RangeTotals(ExpenseColumns columns, int[] rows, int from, int to, boolean sums, BooleanSupplier cancelled) {
+            this.columns = columns;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.sums = sums;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected ViewTotals compute() {
+            if (to - from <= PARALLEL_ROWS) {
+                ViewTotals totals = new ViewTotals();
+                totals.addRows(columns, rows, from, to, sums, cancelled);
+                return totals;
+            }
+            int mid = (from + to) >>> 1;
+            RangeTotals right = new RangeTotals(columns, rows, mid, to, sums, cancelled);
+            right.fork();
+            ViewTotals totals = new RangeTotals(columns, rows, from, mid, sums, cancelled).compute();
+            totals.merge(right.join());
+            return totals;
+        }
+    }
+
+    // Sums and counts of the cube cells in the slice; no per-day buckets
+    public void addCube(AggregateCube cube, AggregateCube.Slice slice) {
+        cube.forEach((month, categoryId, paymentMethodId, sign, sum, count) -> {
+            if (slice.contains(month, categoryId)) addCell(month, categoryId, sign, sum, count);
+        });
+    }
+
+    // Rows of one day and category whose amounts share a sign, summed by a
+    // database query rather than read one by one
+    public void addGroup(int epochDay, short categoryId, long sumCents, long count) {
+        int sign = sumCents > 0 ? AggregateCube.POSITIVE : sumCents < 0 ? AggregateCube.NEGATIVE : AggregateCube.ZERO;
+        addCell(AggregateCube.monthOf(epochDay), categoryId, sign, sumCents, count);
+        long[] d = byDay.computeIfAbsent(epochDay, k -> new long[2]);
+        d[0] += sumCents;
+        d[1] += count;
+    }
+
+    public void add(Expense e) {
+        apply(e.getAmountCents(), e.getCategoryId(), e.getEpochDay(), 1);
+    }
+
+    public void remove(Expense e) {
+        apply(e.getAmountCents(), e.getCategoryId(), e.getEpochDay(), -1);
+    }
+
+    private void apply(long amount, short categoryId, int epochDay, int direction) {
+        addSums(AggregateCube.monthOf(epochDay), categoryId, amount, direction);
+        addDay(epochDay, amount, direction);
+    }
+
+    private void addSums(int month, short categoryId, long amount, int direction) {
+        int sign = amount > 0 ? AggregateCube.POSITIVE : amount < 0 ? AggregateCube.NEGATIVE : AggregateCube.ZERO;
+        addCell(month, categoryId, sign, direction * amount, direction);
+    }
+
+    private void addCell(int month, short categoryId, int sign, long sum, long count) {
+        // Dashboard and pie chart count strictly positive/negative amounts
+        if (sign == AggregateCube.POSITIVE) {
+            income += sum;
+            bump(byCategory.computeIfAbsent(categoryId, k -> new long[4]), INCOME, sum, count);
+        } else if (sign == AggregateCube.NEGATIVE) {
+            expense += sum;
+            bump(byCategory.computeIfAbsent(categoryId, k -> new long[4]), EXPENSE, sum, count);
+        }
+
+        // The monthly chart treats zero amounts as income
+        long[] m = byMonth.computeIfAbsent(month, k -> new long[4]);
+        if (sign == AggregateCube.NEGATIVE) bump(m, EXPENSE, -sum, count);
+        else bump(m, INCOME, sum, count);
+        if (m[INCOME_COUNT] == 0 && m[EXPENSE_COUNT] == 0) byMonth.remove(month);
+    }
+
+    private void addDay(int epochDay, long amount, int direction) {
+        long[] d = byDay.computeIfAbsent(epochDay, k -> new long[2]);
+        d[0] += direction * amount;
+        d[1] += direction;
+        if (d[1] == 0) byDay.remove(epochDay);
+    }
+
+    private static void bump(long[] bucket, int sumIndex, long sum, long count) {
+        bucket[sumIndex] += sum;
+        bucket[sumIndex + 2] += count;
+    }
+
+    public double getIncome() { return income / 100.0; }
+    // Negative, as stored in the ledger
+    public double getExpense() { return expense / 100.0; }
+
+    public double getCategoryIncome(String category) {
+        long[] c = category(category);
+        return c == null ? 0.0 : c[INCOME] / 100.0;
+    }
+
+    // Negative, as stored in the ledger
+    public double getCategoryExpense(String category) {
+        long[] c = category(category);
+        return c == null ? 0.0 : c[EXPENSE] / 100.0;
+    }
+
+    public boolean hasCategoryIncome(String category) {
+        long[] c = category(category);
+        return c != null && c[INCOME_COUNT] > 0;
+    }
+
+    public boolean hasCategoryExpense(String category) {
+        long[] c = category(category);
+        return c != null && c[EXPENSE_COUNT] > 0;
+    }
+
+    private long[] category(String category) {
+        int id = Expense.CATEGORY_DICTIONARY.find(category);
+        return id < 0 ? null : byCategory.get((short) id);
+    }
+
+    // Months with at least one income (amount >= 0) row, in order
+    public SortedMap<YearMonth, Double> getMonthlyIncome() {
+        return monthly(INCOME);
+    }
+
+    // Months with at least one expense row, as positive totals, in order
+    public SortedMap<YearMonth, Double> getMonthlyExpense() {
+        return monthly(EXPENSE);
+    }
+
+    private SortedMap<YearMonth, Double> monthly(int sumIndex) {
+        SortedMap<YearMonth, Double> result = new TreeMap<>();
+        for (Map.Entry<Integer, long[]> entry : byMonth.entrySet()) {
+            if (entry.getValue()[sumIndex + 2] > 0) {
+                int month = entry.getKey();
+                result.put(YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1),
+                    entry.getValue()[sumIndex] / 100.0);
+            }
+        }
+        return result;
+    }
+
+    // Running balance at the end of each day that has rows, keyed by epoch day
+    public TimeSeries getRunningBalance() {
+        double[] days = new double[byDay.size()];
+        double[] balances = new double[byDay.size()];
+        long running = 0;
+        int i = 0;
+        for (Map.Entry<Integer, long[]> entry : byDay.entrySet()) {
+            running += entry.getValue()[0];
+            days[i] = entry.getKey();
+            balances[i++] = running / 100.0;
+        }
+        return new TimeSeries(days, balances);
+    }
+}
@@ -0,0 +1,92 @@
+import budgify.bench.Workload;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Locale;
+
+// Workload over Budgify's own classes; see Workload for why this lives here
+public class BudgifyWorkload implements Workload {
+
+    private Ledger ledger;
+
+    @Override
+    public int parse(Path csv) throws IOException {
+        return CsvLoader.load(csv, new ExpenseStore());
+    }
+
+    @Override
+    public void open(Path csv) throws IOException {
+        ledger = new Ledger(csv, new ExpenseStore());
+        ledger.load();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ledger != null) ledger.close();
+        ledger = null;
+    }
+
+    @Override
+    public int filter(String category, LocalDate from, LocalDate to) {
+        return query(new ExpenseRepository.Filter(null, category, from, to));
+    }
+
+    @Override
+    public int search(String text) {
+        return query(ExpenseRepository.Filter.search(text));
+    }
+
+    private int query(ExpenseRepository.Filter filter) {
+        ExpenseRepository.Page page = ledger.query(filter, null, () -> false);
+        return page.rows().length + page.totals().getMonthlyIncome().size();
+    }
+
+    @Override
+    public int searchScan(String text) {
+        String query = text.toLowerCase(Locale.ROOT);
+        ExpenseStore.Snapshot snapshot = ledger.getStore().snapshot();
+        int matches = 0;
+        for (int row : snapshot.liveRows()) {
+            if (SearchIndex.matches(snapshot.view(row), query)) matches++;
+        }
+        return matches;
+    }
+
+    @Override
+    public Object totals(boolean fromCube) {
+        ExpenseStore.Snapshot snapshot = ledger.getStore().snapshot();
+        ViewTotals totals = new ViewTotals();
+        totals.rebuild(snapshot, snapshot.liveRows(), fromCube ? AggregateCube.Slice.ALL : null, () -> false);
+        return totals;
+    }
+
+    @Override
+    public double dashboard(Object totals) {
+        ViewTotals t = (ViewTotals) totals;
+        return t.getIncome() + t.getExpense();
+    }
+
+    @Override
+    public double pieChart(Object totals) {
+        ViewTotals t = (ViewTotals) totals;
+        double sum = 0;
+        for (String category : Expense.CATEGORIES) {
+            if (t.hasCategoryExpense(category)) sum += t.getCategoryExpense(category);
+            if (t.hasCategoryIncome(category)) sum += t.getCategoryIncome(category);
+        }
+        return sum;
+    }
+
+    @Override
+    public int barChart(Object totals) {
+        ViewTotals t = (ViewTotals) totals;
+        return t.getMonthlyIncome().size() + t.getMonthlyExpense().size();
+    }
+
+    @Override
+    public int trendChart(Object totals, int width) {
+        TimeSeries series = ((ViewTotals) totals).getRunningBalance();
+        return series.downsample(0, series.size(), width).length;
+    }
+}
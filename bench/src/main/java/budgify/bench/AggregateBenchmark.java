@@ -0,0 +1,67 @@
+package budgify.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The totals behind the dashboard and charts: built from every row or from
+ * the aggregate cube, and what each view then reads from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx8g" })
+public class AggregateBenchmark {
+
+    @Param({ "10000", "1000000", "10000000" })
+    public int rows;
+
+    private Workload workload;
+    private Object totals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        workload.open(Ledgers.copy(rows, "aggregate"));
+        totals = workload.totals(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object totalsFromRows() {
+        return workload.totals(false);
+    }
+
+    @Benchmark
+    public Object totalsFromCube() {
+        return workload.totals(true);
+    }
+
+    @Benchmark
+    public double dashboard() {
+        return workload.dashboard(totals);
+    }
+
+    @Benchmark
+    public double pieChart() {
+        return workload.pieChart(totals);
+    }
+
+    @Benchmark
+    public int barChart() {
+        return workload.barChart(totals);
+    }
+
+    @Benchmark
+    public int trendChart() {
+        return workload.trendChart(totals, 1000);
+    }
+}
@@ -0,0 +1,21 @@
+package budgify.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JMH's command line, with the GC profiler (allocation rate per operation)
+ * and a JSON result file unless the arguments choose otherwise.
+ */
+public final class BenchMain {
+
+    private BenchMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(List.of(args));
+        if (!options.contains("-prof")) options.addAll(List.of("-prof", "gc"));
+        if (!options.contains("-rf")) options.addAll(List.of("-rf", "json", "-rff", "target/jmh-result.json"));
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
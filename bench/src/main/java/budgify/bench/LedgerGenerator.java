@@ -0,0 +1,154 @@
+package budgify.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a synthetic ledger in Budgify's CSV layout
+ * ({@code date,category,amount,description,payment method,tags}, no header).
+ * The same row count and seed always produce the same file.
+ *
+ * <p>Rows are spread evenly over five years in date order. Spending is
+ * drawn per category around a typical amount with a long tail. About one row
+ * in twelve is income (salary, interest, refunds). Descriptions name a
+ * merchant, sometimes with a reference number. A third of the rows carry tags.
+ */
+public final class LedgerGenerator {
+
+    private static final LocalDate LAST_DAY = LocalDate.of(2025, 12, 31);
+    private static final int YEARS = 5;
+
+    // Category, relative frequency, typical amount in cents, merchants
+    private static final Object[][] SPENDING = {
+        { "Food", 30, 2_400, new String[] { "Grocery Mart", "Corner Bakery", "Noodle House", "Coffee Bean", "Fresh Market", "Pizza Place" } },
+        { "Transportation", 14, 1_800, new String[] { "Metro Card", "City Fuel", "Ride Share", "Parking Garage", "Toll Road" } },
+        { "Utilities", 8, 9_000, new String[] { "Power Company", "Water District", "Fiber Internet", "Mobile Plan" } },
+        { "Housing", 4, 120_000, new String[] { "Rent", "Home Repair", "Hardware Store", "Furniture Outlet" } },
+        { "Entertainment", 12, 3_000, new String[] { "Cinema", "Streaming Service", "Concert Tickets", "Game Store", "Bookshop" } },
+        { "Healthcare", 5, 6_000, new String[] { "Pharmacy", "Dental Clinic", "Eye Care", "General Hospital" } },
+        { "Education", 3, 15_000, new String[] { "Online Course", "University Fees", "Textbooks" } },
+        { "Debt", 3, 25_000, new String[] { "Credit Card Payment", "Car Loan", "Student Loan" } },
+        { "Savings", 3, 20_000, new String[] { "Emergency Fund", "Holiday Fund" } },
+        { "Investments", 2, 50_000, new String[] { "Index Fund", "Brokerage Deposit" } },
+        { "Other", 8, 2_000, new String[] { "Gift Shop", "Charity", "Post Office", "Laundry" } },
+    };
+    private static final String[][] INCOME = {
+        { "Other", "Salary" }, { "Savings", "Interest" }, { "Investments", "Dividends" }, { "Other", "Refund" },
+    };
+    private static final String[] PAYMENT_METHODS = {
+        "Cash", "Credit Card", "Debit Card", "Bank Transfer", "Digital Wallet", "Cryptocurrency", "Other",
+    };
+    private static final int[] PAYMENT_WEIGHTS = { 15, 35, 25, 12, 10, 1, 2 };
+    private static final String[] TAGS = {
+        "work", "family", "travel", "weekend", "subscription", "gift", "recurring", "reimbursable", "holiday",
+    };
+
+    private LedgerGenerator() {
+    }
+
+    /** {@code LedgerGenerator <rows> [seed] [file]}; the file defaults to expenses-<rows>-<seed>.csv */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: LedgerGenerator <rows> [seed] [file]");
+            System.exit(2);
+        }
+        int rows = Integer.parseInt(args[0]);
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Path file = Paths.get(args.length > 2 ? args[2] : "expenses-" + rows + "-" + seed + ".csv");
+        long start = System.nanoTime();
+        generate(file, rows, seed);
+        System.out.printf("%,d rows, %,d bytes in %.1f s -> %s%n",
+            rows, Files.size(file), (System.nanoTime() - start) / 1e9, file);
+    }
+
+    /** Writes the ledger to a temporary file first, so a half-written one is never picked up. */
+    public static void generate(Path file, int rows, long seed) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "ledger", ".part");
+        SplittableRandom random = new SplittableRandom(seed);
+        int totalWeight = 0;
+        for (Object[] category : SPENDING) totalWeight += (Integer) category[1];
+        long firstDay = LAST_DAY.minusYears(YEARS).plusDays(1).toEpochDay();
+        long days = LAST_DAY.toEpochDay() - firstDay + 1;
+
+        StringBuilder line = new StringBuilder(128);
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                line.setLength(0);
+                line.append(LocalDate.ofEpochDay(firstDay + (long) i * days / rows)).append(',');
+                long cents;
+                String merchant;
+                if (random.nextInt(12) == 0) {
+                    String[] income = INCOME[random.nextInt(INCOME.length)];
+                    line.append(income[0]);
+                    merchant = income[1];
+                    cents = merchant.equals("Salary") ? 250_000 + random.nextInt(150_000) : 500 + random.nextInt(20_000);
+                } else {
+                    Object[] category = pick(random, totalWeight);
+                    line.append((String) category[0]);
+                    String[] merchants = (String[]) category[3];
+                    merchant = merchants[random.nextInt(merchants.length)];
+                    // Log-normal around the typical amount
+                    cents = -Math.max(1, Math.round((Integer) category[2] * Math.exp(0.6 * gaussian(random))));
+                }
+                line.append(',');
+                appendCents(line, cents);
+                line.append(',').append(merchant);
+                if (random.nextInt(4) == 0) line.append(" #").append(10_000 + random.nextInt(90_000));
+                line.append(',').append(PAYMENT_METHODS[weighted(random, PAYMENT_WEIGHTS)]).append(',');
+                int tags = random.nextInt(3) == 0 ? 1 + random.nextInt(2) : 0;
+                for (int t = 0; t < tags; t++) {
+                    if (t > 0) line.append(';');
+                    line.append(TAGS[random.nextInt(TAGS.length)]);
+                }
+                out.append(line).append('\n');
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Object[] pick(SplittableRandom random, int totalWeight) {
+        int r = random.nextInt(totalWeight);
+        for (Object[] category : SPENDING) {
+            r -= (Integer) category[1];
+            if (r < 0) return category;
+        }
+        return SPENDING[SPENDING.length - 1];
+    }
+
+    private static int weighted(SplittableRandom random, int[] weights) {
+        int total = 0;
+        for (int w : weights) total += w;
+        int r = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    // Box-Muller, so the output depends only on the seed
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static void appendCents(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            cents = -cents;
+        }
+        out.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) out.append('0');
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,43 @@
+package budgify.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** Generated ledgers shared by the benchmarks, created on first use and then reused. */
+final class Ledgers {
+
+    static final long SEED = 42;
+
+    private Ledgers() {
+    }
+
+    /**
+     * A directory holding only a copy of the ledger with this many rows, so
+     * the journal and snapshot files a load creates beside it stay apart
+     * from other benchmarks' copies.
+     */
+    static Path copy(int rows, String user) throws IOException {
+        Path source = file(rows);
+        Path dir = Files.createDirectories(directory().resolve(user + "-" + rows));
+        Path copy = dir.resolve("expenses.csv");
+        if (!Files.exists(copy) || Files.size(copy) != Files.size(source)) {
+            try (var files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);
+            }
+            Files.copy(source, copy);
+        }
+        return copy;
+    }
+
+    static synchronized Path file(int rows) throws IOException {
+        Path file = directory().resolve("expenses-" + rows + "-" + SEED + ".csv");
+        if (!Files.exists(file)) LedgerGenerator.generate(file, rows, SEED);
+        return file;
+    }
+
+    private static Path directory() {
+        return Paths.get(System.getProperty("budgify.bench.data", "target/ledgers"));
+    }
+}
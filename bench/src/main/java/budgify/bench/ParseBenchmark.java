@@ -0,0 +1,34 @@
+package budgify.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Parsing a ledger's CSV file into the column store, as a load without a snapshot does. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx8g" })
+public class ParseBenchmark {
+
+    @Param({ "10000", "1000000", "10000000" })
+    public int rows;
+
+    private Workload workload;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        file = Ledgers.file(rows);
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        return workload.parse(file);
+    }
+}
@@ -0,0 +1,67 @@
+package budgify.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The view queries: Apply Filters (category and/or date range) and the search
+ * box, each returning rows plus their totals as the views get them, and the
+ * plain search predicate over every row for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx8g" })
+public class QueryBenchmark {
+
+    // Generated ledgers end on this day
+    private static final LocalDate LAST_DAY = LocalDate.of(2025, 12, 31);
+
+    @Param({ "10000", "1000000", "10000000" })
+    public int rows;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        workload.open(Ledgers.copy(rows, "query"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workload.close();
+    }
+
+    @Benchmark
+    public int filterCategoryMonth() throws IOException {
+        return workload.filter("Food", LAST_DAY.withDayOfMonth(1), LAST_DAY);
+    }
+
+    // Whole months of every category: totals come from the aggregate cube
+    @Benchmark
+    public int filterYear() throws IOException {
+        return workload.filter(null, LAST_DAY.withDayOfYear(1), LAST_DAY);
+    }
+
+    @Benchmark
+    public int filterCategory() throws IOException {
+        return workload.filter("Entertainment", null, null);
+    }
+
+    // Two unrelated queries, so neither refines the other's result
+    @Benchmark
+    public int search() throws IOException {
+        return workload.search("coffee") + workload.search("fuel");
+    }
+
+    @Benchmark
+    public int searchScan() {
+        return workload.searchScan("coffee") + workload.searchScan("fuel");
+    }
+}
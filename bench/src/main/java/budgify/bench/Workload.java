@@ -0,0 +1,51 @@
+package budgify.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * The ledger operations the benchmarks measure. Budgify's classes live in the
+ * unnamed package, which code in a named package (as JMH requires benchmarks
+ * to be) cannot refer to; the implementation, {@code BudgifyWorkload}, sits in
+ * the unnamed package of this module and is loaded by name.
+ */
+public interface Workload {
+
+    static Workload create() {
+        try {
+            return (Workload) Class.forName("BudgifyWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BudgifyWorkload not found", e);
+        }
+    }
+
+    /** Parses the CSV file into a new store, as a ledger load does; returns the rows. */
+    int parse(Path csv) throws IOException;
+
+    /** Loads the ledger that the methods below work on. */
+    void open(Path csv) throws IOException;
+
+    void close() throws IOException;
+
+    /** The Apply Filters query: rows and totals of a category (null for any) and date range. */
+    int filter(String category, LocalDate from, LocalDate to) throws IOException;
+
+    /** The search box, through the ledger's search index. */
+    int search(String text) throws IOException;
+
+    /** The search predicate applied to every row, as the search box did before it had an index. */
+    int searchScan(String text);
+
+    /** Totals of every row, from the rows themselves or from the aggregate cube. */
+    Object totals(boolean fromCube);
+
+    /** What the dashboard, pie chart, monthly chart and trend chart read from the totals. */
+    double dashboard(Object totals);
+
+    double pieChart(Object totals);
+
+    int barChart(Object totals);
+
+    int trendChart(Object totals, int width);
+}